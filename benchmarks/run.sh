@@ -0,0 +1,21 @@
+#!/bin/sh
+# Builds and runs the benchmarks, then checks the results against baseline.csv with BenchmarkGate.
+# JMH_CP must list the JMH jars: jmh-core, jmh-generator-annprocess, jopt-simple and commons-math3,
+# e.g. JMH_CP=$(ls ~/jmh/*.jar | tr '\n' ':') benchmarks/run.sh
+# Arguments are passed to JMH, e.g. benchmarks/run.sh Broadcast -p recipients=1000
+# TOLERANCE is how many percent slower a benchmark may get before the gate fails, 10 by default.
+# Without a baseline the gate fails; benchmarks/run.sh --record [JMH arguments] records the results
+# of the run as the baseline instead of checking them, once per machine the gate runs on.
+set -e
+gate=
+if [ "$1" = "--record" ]; then
+	gate=--record
+	shift
+fi
+cd "$(dirname "$0")/.."
+target=benchmarks/target
+rm -rf "$target"
+mkdir -p "$target/classes"
+javac -cp "$JMH_CP" -d "$target/classes" src/network/*.java benchmarks/src/network/*.java
+java -cp "$target/classes:$JMH_CP" org.openjdk.jmh.Main -rf csv -rff "$target/results.csv" "$@"
+java -cp "$target/classes" network.BenchmarkGate $gate benchmarks/baseline.csv "$target/results.csv" "${TOLERANCE:-10}"
@@ -0,0 +1,176 @@
+package network;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares the results of a benchmark run with a baseline and fails if any benchmark has become
+// slower by more than the allowed percentage, so a change that costs performance is noticed.
+// Both files are JMH's CSV output (-rf csv). A benchmark is identified by its name and parameters;
+// in throughput mode a lower score is slower, in every other mode a higher one. Benchmarks only
+// in one of the files are listed but do not fail the gate. A baseline is only made on purpose, on
+// the machine the gate runs on, by recording the results of a run with --record; a missing
+// baseline fails the gate rather than letting the run pass unchecked:
+//   java -cp benchmarks/target/classes network.BenchmarkGate BASELINE RESULTS [PERCENT]
+//   java -cp benchmarks/target/classes network.BenchmarkGate --record BASELINE RESULTS
+// exits with status 1 if a benchmark regressed, 2 if the files cannot be read.
+public class BenchmarkGate {
+	private static final double DEFAULT_TOLERANCE = 10;
+
+	// one line of JMH's CSV output
+	private static class Result {
+		final String mode;
+		final double score;
+		final String unit;
+
+		Result(String mode, double score, String unit) {
+			this.mode = mode;
+			this.score = score;
+			this.unit = unit;
+		}
+	}
+
+	public static void main(String[] args) {
+		boolean record = args.length > 0 && args[0].equals("--record");
+		int first = record ? 1 : 0;
+		if (args.length < first + 2) {
+			System.out.println("Usage: BenchmarkGate [--record] BASELINE RESULTS [PERCENT]");
+			System.exit(2);
+		}
+		Path baselinePath = Paths.get(args[first]);
+		Path resultsPath = Paths.get(args[first + 1]);
+		double tolerance = args.length > first + 2 ? Double.parseDouble(args[first + 2]) : DEFAULT_TOLERANCE;
+
+		try {
+			if (record) {
+				// only results which can be compared later are recorded
+				read(resultsPath);
+				Files.copy(resultsPath, baselinePath, StandardCopyOption.REPLACE_EXISTING);
+				System.out.println("Recorded " + resultsPath + " as " + baselinePath);
+				return;
+			}
+			if (!Files.exists(baselinePath)) {
+				System.out.println("No baseline at " + baselinePath + ", record one with --record");
+				System.exit(2);
+			}
+			Map<String, Result> baseline = read(baselinePath);
+			Map<String, Result> results = read(resultsPath);
+			System.exit(compare(baseline, results, tolerance) ? 0 : 1);
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println("Could not compare the benchmark results: " + e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	// prints every benchmark with its change, returns false if any is slower than allowed
+	private static boolean compare(Map<String, Result> baseline, Map<String, Result> results, double tolerance) {
+		boolean passed = true;
+		for (Map.Entry<String, Result> entry : results.entrySet()) {
+			Result now = entry.getValue();
+			Result before = baseline.get(entry.getKey());
+			if (before == null) {
+				System.out.println(String.format("  new        %s  %.3f %s", entry.getKey(), now.score, now.unit));
+				continue;
+			}
+			if (!before.unit.equals(now.unit) || !before.mode.equals(now.mode)) {
+				System.out.println("  changed    " + entry.getKey() + " is measured differently than in the baseline");
+				continue;
+			}
+
+			// positive when slower, in percent
+			double change = (now.score - before.score) / before.score * 100;
+			if (now.mode.equals("thrpt")) {
+				change = -change;
+			}
+			boolean regressed = change > tolerance;
+			passed &= !regressed;
+			System.out.println(String.format("  %-9s  %s  %.3f -> %.3f %s (%+.1f%% slower)", regressed ? "REGRESSED" : "ok",
+					entry.getKey(), before.score, now.score, now.unit, change));
+		}
+		for (String name : baseline.keySet()) {
+			if (!results.containsKey(name)) {
+				System.out.println("  missing    " + name);
+			}
+		}
+		System.out.println(passed ? "No benchmark is more than " + tolerance + "% slower than the baseline"
+				: "Some benchmarks are more than " + tolerance + "% slower than the baseline");
+		return passed;
+	}
+
+	// reads JMH's CSV output, keyed by the benchmark's name followed by its parameters
+	private static Map<String, Result> read(Path path) throws IOException {
+		List<String> lines = Files.readAllLines(path);
+		if (lines.isEmpty()) {
+			throw new IllegalArgumentException(path + " is empty");
+		}
+		List<String> header = split(lines.get(0));
+		int name = column(header, "Benchmark", path);
+		int mode = column(header, "Mode", path);
+		int score = column(header, "Score", path);
+		int unit = column(header, "Unit", path);
+
+		Map<String, Result> results = new LinkedHashMap<>();
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.isBlank()) {
+				continue;
+			}
+			List<String> fields = split(line);
+			StringBuilder key = new StringBuilder(fields.get(name));
+			for (int i = 0; i < header.size() && i < fields.size(); i++) {
+				if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty()) {
+					key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+				}
+			}
+			results.put(key.toString(), new Result(fields.get(mode), Double.parseDouble(fields.get(score)), fields.get(unit)));
+		}
+		return results;
+	}
+
+	private static int column(List<String> header, String name, Path path) {
+		int index = header.indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException(path + " has no " + name + " column, is it JMH's CSV output?");
+		}
+		return index;
+	}
+
+	// splits a CSV line, fields may be quoted with "" standing for a quote inside them
+	private static List<String> split(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				}
+				else if (c == '"') {
+					quoted = false;
+				}
+				else {
+					field.append(c);
+				}
+			}
+			else if (c == '"') {
+				quoted = true;
+			}
+			else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
@@ -0,0 +1,45 @@
+package network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of sending one message to everyone in the chat, Session.broadcast(), for chats of
+// different sizes. Each run is forked, so the users of one size never see those of another.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BroadcastBenchmark {
+	@Param({ "10", "1000", "10000" })
+	public int recipients;
+
+	private Session sender;
+
+	@Setup
+	public void join() {
+		for (int i = 0; i < recipients; i++) {
+			sender = MemoryConnection.join("user" + i);
+		}
+	}
+
+	// a new SharedMessage each time, so encoding it once is part of the cost like on the server
+	@Benchmark
+	public Object broadcast() {
+		SharedMessage message = new SharedMessage("[12:00:00] user0: hello everyone in the chat");
+		sender.broadcast(message);
+		return message;
+	}
+}
@@ -0,0 +1,51 @@
+package network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of the text the server formats for users: the timestamp put in front of every chat
+// message, Session.getCurrentTimestamp(), and the table of users !online prints,
+// Session.printUserDetailsMessage(), for chats of different sizes.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FormattingBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Chat {
+		@Param({ "10", "1000" })
+		public int users;
+
+		Session session;
+
+		@Setup
+		public void join() {
+			for (int i = 0; i < users; i++) {
+				session = MemoryConnection.join("user" + i);
+			}
+		}
+	}
+
+	@Benchmark
+	public String timestamp() {
+		return Session.getCurrentTimestamp();
+	}
+
+	@Benchmark
+	public void printUserDetails(Chat chat) {
+		chat.session.printUserDetailsMessage();
+	}
+}
@@ -0,0 +1,58 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Cost of splitting what a text protocol client sends into lines, LineDecoder.decode(), for a
+// read of 100 chat lines. A heap buffer takes the decoder's fast path, a direct buffer like
+// the ones nio mode reads into has every line copied into the decoder's own array first.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LineDecoderBenchmark {
+	private static final int LINES = 100;
+
+	@Param({ "heap", "direct" })
+	public String buffer;
+
+	private ByteBuffer input;
+	private final LineDecoder decoder = new LineDecoder(ServerConfig.MAX_LINE);
+
+	@Setup
+	public void fill() {
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < LINES; i++) {
+			lines.append("a chat message of an ordinary length, number ").append(i).append("\r\n");
+		}
+		byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+		input = buffer.equals("direct") ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+		input.put(bytes).flip();
+	}
+
+	@Benchmark
+	public void decode(Blackhole lines) throws IOException {
+		ByteBuffer in = input.duplicate();
+		String line;
+		while ((line = decoder.decode(in)) != null) {
+			lines.consume(line);
+		}
+	}
+}
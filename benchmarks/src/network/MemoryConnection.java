@@ -0,0 +1,123 @@
+package network;
+
+import java.net.InetAddress;
+import java.net.Socket;
+
+// Connection kept in memory for the benchmarks, so sessions can be driven without sockets and
+// results do not depend on the network. It counts what it is sent instead of writing it, taking
+// a duplicate() of shared messages like the real connections do when they queue them.
+class MemoryConnection implements Connection {
+	private static final InetAddress LOCALHOST = InetAddress.getLoopbackAddress();
+
+	// socket which only answers the questions sessions ask to describe a user
+	private static class MemorySocket extends Socket {
+		private final int port;
+
+		MemorySocket(int port) {
+			this.port = port;
+		}
+
+		@Override
+		public InetAddress getInetAddress() {
+			return LOCALHOST;
+		}
+
+		@Override
+		public InetAddress getLocalAddress() {
+			return LOCALHOST;
+		}
+
+		@Override
+		public int getLocalPort() {
+			return port;
+		}
+	}
+
+	private static int nextPort = 10000;
+
+	private final Socket socket = new MemorySocket(nextPort++);
+	private Session session;
+	private boolean closed = false;
+
+	// what has been sent so far, counted so that sending is not optimised away
+	long messages = 0;
+	long bytes = 0;
+
+	// connects a user to the chat and walks them through the handshake, the heartbeat is
+	// stopped so that no user is evicted for not answering pings during a long run
+	static Session join(String name) {
+		MemoryConnection connection = new MemoryConnection();
+		Session session = new Session(connection);
+		connection.session = session;
+		session.onText(name);
+		session.onControl("READY");
+		session.heartbeat.stop();
+		return session;
+	}
+
+	@Override
+	public void send(String text) {
+		messages++;
+		bytes += text.length() + 1;
+	}
+
+	@Override
+	public void sendControl(String message) {
+		send(message);
+	}
+
+	@Override
+	public void send(SharedMessage message) {
+		messages++;
+		bytes += message.line().duplicate().remaining();
+	}
+
+	@Override
+	public void send(long seq, String text) {
+		send(text);
+	}
+
+	@Override
+	public void send(long seq, SharedMessage message) {
+		send(message);
+	}
+
+	@Override
+	public void setSession(Session session) {
+		this.session = session;
+	}
+
+	@Override
+	public void joined() {
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public void abort() {
+		closed = true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public int queued() {
+		return 0;
+	}
+
+	@Override
+	public boolean isFramed() {
+		return false;
+	}
+
+	@Override
+	public Socket socket() {
+		return socket;
+	}
+}
@@ -0,0 +1,47 @@
+package network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of handling one request from a user, RequestHandler.handleRequest(), in a chat of 100
+// users: a chat message, which is timestamped, kept in the history and broadcast, and commands
+// which only answer the user who sent them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RequestHandlerBenchmark {
+	private static final int USERS = 100;
+
+	@Param({ "hello everyone", "!coordinator", "!help", "!history 5" })
+	public String request;
+
+	private RequestHandler handler;
+
+	@Setup
+	public void join() {
+		Session session = null;
+		for (int i = 0; i < USERS; i++) {
+			session = MemoryConnection.join("user" + i);
+		}
+		handler = new RequestHandler(session);
+	}
+
+	@Benchmark
+	public void handleRequest() {
+		handler.handleRequest(request);
+	}
+}
@@ -5,5 +5,6 @@
  * 
  */
 module ChatApp {
+	requires jdk.httpserver;
 	requires org.junit.jupiter.api;
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Decides when a connection is accepted whether the server takes it on, so that under overload
+// new clients are told straight away instead of being accepted and left waiting for an answer.
+// A connection is turned away with SERVER_FULL when chat.maxConnections are already being served,
+// when chat.maxHandshakes connections have not yet finished joining the chat, or when the messages
+// queued for all users together take more than chat.outboundWatermark bytes, since the users
+// already connected are not keeping up. Every connection taken on holds a Ticket until it closes;
+// its handshake ends once its user has joined the chat or resumed a session.
+class AdmissionController {
+	public static final String SERVER_FULL = "SERVER_FULL";
+
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger handshakes = new AtomicInteger();
+
+	// held by one connection, safe to end and release more than once
+	class Ticket {
+		private final AtomicBoolean handshaking = new AtomicBoolean(true);
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		// called once the user has joined the chat or resumed a session
+		public void joined() {
+			if (handshaking.compareAndSet(true, false)) {
+				handshakes.decrementAndGet();
+			}
+		}
+
+		// called once the connection has closed
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				joined();
+				connections.decrementAndGet();
+			}
+		}
+	}
+
+	// returns the ticket of a new connection, or null if it has to be turned away
+	public Ticket admit() {
+		if (ServerContext.metrics.outboundBytes.sum() > ServerConfig.OUTBOUND_WATERMARK) {
+			return null;
+		}
+		if (connections.incrementAndGet() > ServerConfig.MAX_CONNECTIONS) {
+			connections.decrementAndGet();
+			return null;
+		}
+		if (handshakes.incrementAndGet() > ServerConfig.MAX_HANDSHAKES) {
+			handshakes.decrementAndGet();
+			connections.decrementAndGet();
+			return null;
+		}
+		return new Ticket();
+	}
+
+	public int connections() {
+		return connections.get();
+	}
+
+	public int handshakes() {
+		return handshakes.get();
+	}
+}
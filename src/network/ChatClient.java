@@ -1,32 +1,172 @@
 package network;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
 
 public class ChatClient {
 
 	static Socket socket;
+	static String address;
+	static int port;
 	
 	static Scanner in;
-	public static Scanner serverIn;
+	public static LineReader serverIn;
 	static PrintWriter serverOut;
+	
+	// used instead of serverIn and serverOut once the server has agreed to use frames
+	// start the client with -Dchat.framed=true to ask for them
+	public static boolean framed = Boolean.getBoolean("chat.framed");
+	public static DataInputStream frameIn;
+	static DataOutputStream frameOut;
+	
+	// a framed client can pick its session up again after losing its connection, see SessionReplay
+	// the token is sent by the server, lastSeq is the sequence number of the last text received
+	static volatile String sessionToken;
+	static long lastSeq = 0;
+	
+	// texts sent since asking for a resumable session, the last of them are kept to be sent again
+	// if the connection breaks before the server has received them
+	private static final int RESEND_WINDOW = 256;
+	private static boolean resumable = false;
+	private static long textsSent = 0;
+	private static final ArrayDeque<String> sentTexts = new ArrayDeque<>();
+	
+	// set once the user has quit or the connection is lost for good
+	static volatile boolean quitting = false;
+	static volatile boolean running = true;
 		
 	static String name;
 	
 	public static HashSet<String> userNames;
+	// sequence number of the last change applied to userNames, see MembershipFeed
+	static long membersSeq = -1;
+	// clients other than the coordinator only follow the list of users if started with -Dchat.members=true
+	static boolean followMembers = Boolean.getBoolean("chat.members");
+	
+	// messages of the text protocol which are meant for the client rather than the user
+	private static final Set<String> CONTROL_MESSAGES = Set.of("NAME_ACCEPTED", "NAME_TAKEN", "SERVER_FULL",
+			"QUIT_SUCCESS", "NAMES_BEGIN", "NAMES_END", "PING");
+	private static final String[] CONTROL_PREFIXES = { "NAMES_BEGIN ", "MEMBER_JOIN ", "MEMBER_LEAVE " };
+	
+	private static boolean isControlMessage(String line) {
+		if (CONTROL_MESSAGES.contains(line)) {
+			return true;
+		}
+		for (String prefix : CONTROL_PREFIXES) {
+			if (line.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// sends chat text or a command typed by the user
+	public static synchronized void sendText(String text) throws IOException {
+		if (resumable) {
+			textsSent++;
+			sentTexts.add(text);
+			if (sentTexts.size() > RESEND_WINDOW) {
+				sentTexts.poll();
+			}
+		}
+		if (framed) {
+			FrameCodec.write(frameOut, Frame.TEXT, text);
+			frameOut.flush();
+		}
+		else {
+			serverOut.println(text);
+		}
+	}
+	
+	// sends a control message such as READY or a reply to PING
+	public static synchronized void sendControl(String message) throws IOException {
+		if (message.equals("RESUMABLE")) {
+			resumable = true;
+		}
+		if (framed) {
+			FrameCodec.write(frameOut, Frame.CONTROL, message);
+			frameOut.flush();
+		}
+		else {
+			serverOut.println(message);
+		}
+	}
+	
+	// opens a connection to the server and prepares the streams for it
+	// a framed client asks for frames first, older servers do not answer and are not supported
+	static synchronized void connect() throws IOException {
+		socket = new Socket(address, port);
+		serverIn = new LineReader(socket.getInputStream());
+		if (framed) {
+			FrameCodec.writeLine(socket.getOutputStream(), FrameCodec.HELLO);
+			String answer = serverIn.readLine();
+			if ("SERVER_FULL".equals(answer)) {
+				socket.close();
+				throw new IOException("The server is full, please try again later!");
+			}
+			if (!FrameCodec.HELLO_OK.equals(answer)) {
+				socket.close();
+				throw new IOException("Server does not support the framed protocol!");
+			}
+			// frames are read through serverIn, which may already hold the first of them
+			frameIn = new DataInputStream(serverIn);
+			frameOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+		else {
+			serverOut = new PrintWriter(socket.getOutputStream(), true);
+		}
+	}
+	
+	// sends again the texts after the first received ones, which were lost with the old connection
+	static synchronized void resendAfter(long received) throws IOException {
+		long first = textsSent - sentTexts.size() + 1;
+		long seq = first;
+		List<String> lost = new ArrayList<>();
+		for (String text : sentTexts) {
+			if (seq > received) {
+				lost.add(text);
+			}
+			seq++;
+		}
+		textsSent = received;
+		sentTexts.clear();
+		for (String text : lost) {
+			sendText(text);
+		}
+	}
+	
+	// waits for the next message from the server, returns null once the connection has ended
+	// with the text protocol a line is taken to be a control message if it matches one
+	public static Frame readMessage() throws IOException {
+		if (framed) {
+			return FrameCodec.read(frameIn, Integer.MAX_VALUE);
+		}
+		String line = serverIn.readLine();
+		if (line == null) {
+			return null;
+		}
+		return new Frame(isControlMessage(line) ? Frame.CONTROL : Frame.TEXT, line);
+	}
 		
 	public static void main(String[] args) throws IOException {
 		in = new Scanner(System.in);
 		
 		System.out.println("Enter in an IP address to connect to:");
-		String address = in.nextLine();
+		address = in.nextLine();
 		
 		// ask for port number to attempt to connect to
 		// checks for valid port between 0 and 65535
-		int port = -1;
+		port = -1;
 		while (port == -1) {
 			System.out.println("Enter in a port to connect to:");
 			String portString = in.nextLine();
@@ -46,9 +186,7 @@ public class ChatClient {
 		// attempts to establish a connection to the server
 		// prepares input and output streams for communication with server
 		try {
-			socket = new Socket(address, port);
-			serverIn = new Scanner(socket.getInputStream());
-			serverOut = new PrintWriter(socket.getOutputStream(), true);
+			connect();
 			
 			System.out.println("Connected!\n");
 			
@@ -56,20 +194,21 @@ public class ChatClient {
 			while (true) {
 				System.out.println("Please enter in your name: ");
 				name = in.nextLine();
-				serverOut.println(name);
+				sendText(name);
 				
-				// gives server time to respond whether the name is unique or not
-				while (!serverIn.hasNextLine())
-				{
-					// if server hasn't responded yet, sleep this thread for
-					// 50ms and try again
-					Thread.sleep(50);
+				// waits for the server to respond whether the name is unique or not
+				Frame response = readMessage();
+				if (response == null) {
+					System.out.println("Connection closed by server!");
+					return;
 				}
-				
-				String response = serverIn.nextLine();
-				if (response.equals("NAME_ACCEPTED")) {
+				if (response.payload.equals("NAME_ACCEPTED")) {
 					break;
 				}
+				else if (response.payload.equals("SERVER_FULL")) {
+					System.out.println("The server is full, please try again later!");
+					return;
+				}
 				else {
 					System.out.println("Name taken!");
 				}
@@ -79,19 +218,27 @@ public class ChatClient {
 			Thread printerThread = new Thread(new Printer(), "printerThread");
 			printerThread.start();
 			
-		} catch (NumberFormatException | IOException | InterruptedException e) {
+		} catch (NumberFormatException | IOException e) {
 			e.printStackTrace();
 			return;			
 		}
 		
 		// allow user to write messages and run commands
-		while (!socket.isClosed()) {
+		// the Printer may be reconnecting in the meantime, in which case sending fails
+		while (running) {
 			String s = in.nextLine();
 			if (s.isEmpty()) {
 				continue;
 			}
-			serverOut.println(s);
 			if (s.equals("!quit")) {
+				quitting = true;
+			}
+			try {
+				sendText(s);
+			} catch (IOException e) {
+				System.out.println("Not connected, message not sent!");
+			}
+			if (quitting) {
 				break;
 			}
 		}
@@ -109,5 +256,8 @@ public class ChatClient {
 		if (serverIn != null) {
 			serverIn.close();
 		}
+		if (frameOut != null) {
+			frameOut.close();
+		}
 	}
 }
@@ -0,0 +1,366 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Lets several server nodes act as one chat, connected by a ClusterBus. Every node keeps its
+// own users and passes on what the others need to know:
+//   CHAT <text>                 a message sent to the whole chat
+//   ROOM <room> <text>          a message sent to a room
+//   PRIVATE <name> <text>       a private message for a user on the receiving node
+//   JOIN <name> <ip> <port>     a user has joined on the sending node
+//   LEAVE <name>                a user on the sending node has left
+//   COORDINATOR <name>          the sending node's coordinator, empty if it has none
+//   CLAIM <id> <name>           asks the owner of a name whether a user may take it
+//   CLAIMED <id> <1 or 0>       the owner's answer
+//   RELEASE <name>              tells the owner a name is free again
+// Messages for the chat or a room are sent once to every node, which hands them to its own
+// users, so a message costs one send per node however many users the other nodes have.
+// Every node holds the users of the others, so !online and private messages need no questions.
+// Names are kept unique by giving each name an owner: of the nodes which are up, the one which
+// ranks highest for the name by rendezvous hashing. A new user's name is only accepted once its
+// owner has agreed, and when nodes come or go every node claims its users' names again from
+// their new owners. The cluster's coordinator is the coordinator of the first node, in id order,
+// which has one, which every node works out the same way from what the nodes report.
+// Everything to do with this node's own users goes through its ClusterHost.
+public class Cluster implements ClusterBus.Listener {
+	private final ClusterBus bus;
+	private final ClusterHost host;
+	private final String node;
+
+	// nodes which are up, this one included
+	private final TreeSet<String> live = new TreeSet<>();
+
+	// a user on another node
+	public static class RemoteUser {
+		public final String name;
+		public final String node;
+		public final String address;
+		public final String port;
+
+		public RemoteUser(String name, String node, String address, String port) {
+			this.name = name;
+			this.node = node;
+			this.address = address;
+			this.port = port;
+		}
+	}
+
+	private final ConcurrentHashMap<String, RemoteUser> remoteUsers = new ConcurrentHashMap<>();
+
+	// names this node is the owner of, and the node whose user has each
+	private final ConcurrentHashMap<String, String> claims = new ConcurrentHashMap<>();
+
+	// claims sent to other nodes which have not been answered yet
+	private static class PendingClaim {
+		final String owner;
+		final Consumer<Boolean> done;
+		TimerWheel.Timeout timeout;
+
+		PendingClaim(String owner, Consumer<Boolean> done) {
+			this.owner = owner;
+			this.done = done;
+		}
+	}
+
+	private final ConcurrentHashMap<Long, PendingClaim> pending = new ConcurrentHashMap<>();
+	private final AtomicLong claimIds = new AtomicLong();
+
+	// coordinator reported by each node, this one included
+	private final ConcurrentHashMap<String, String> coordinators = new ConcurrentHashMap<>();
+
+	public Cluster(ClusterBus bus, ClusterHost host) {
+		this.bus = bus;
+		this.host = host;
+		node = bus.node();
+		live.add(node);
+	}
+
+	public void start() throws java.io.IOException {
+		bus.start(this);
+	}
+
+	public void close() {
+		bus.close();
+	}
+
+	// the node which decides whether a name may be taken
+	private String owner(String name) {
+		synchronized (live) {
+			String best = node;
+			long bestScore = Long.MIN_VALUE;
+			for (String candidate : live) {
+				long score = mix((candidate + "/" + name).hashCode());
+				if (score > bestScore) {
+					best = candidate;
+					bestScore = score;
+				}
+			}
+			return best;
+		}
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb53fe1a85a9bL;
+		return h ^ (h >>> 33);
+	}
+
+	// asks the name's owner whether a user of this node may take it, done is called with
+	// the answer, on this thread if this node is the owner or on the bus thread otherwise
+	public void claim(String name, Consumer<Boolean> done) {
+		String owner = owner(name);
+		if (owner.equals(node)) {
+			done.accept(grant(name, node));
+			return;
+		}
+
+		long id = claimIds.incrementAndGet();
+		PendingClaim claim = new PendingClaim(owner, done);
+		pending.put(id, claim);
+		claim.timeout = ServerContext.timer.schedule(() -> answer(id, false), ServerConfig.CLUSTER_WAIT_MILLIS);
+		bus.send(owner, new ClusterMessage("CLAIM", Long.toString(id), name));
+	}
+
+	private void answer(long id, boolean granted) {
+		PendingClaim claim = pending.remove(id);
+		if (claim != null) {
+			claim.timeout.cancel();
+			claim.done.accept(granted);
+		}
+	}
+
+	// records that a node's user has the name if nobody else has it
+	private boolean grant(String name, String holder) {
+		String current = claims.putIfAbsent(name, holder);
+		return current == null || current.equals(holder);
+	}
+
+	public void release(String name) {
+		String owner = owner(name);
+		if (owner.equals(node)) {
+			claims.remove(name, node);
+		}
+		else {
+			bus.send(owner, new ClusterMessage("RELEASE", name));
+		}
+	}
+
+	// tells the other nodes about a user who has joined on this node
+	public void joined(Session session) {
+		joined(session.userName, session.socket().getLocalAddress().getHostAddress(),
+				String.valueOf(session.socket().getLocalPort()));
+	}
+
+	public void joined(String name, String address, String port) {
+		bus.publish(new ClusterMessage("JOIN", name, address, port));
+	}
+
+	public void left(String name) {
+		bus.publish(new ClusterMessage("LEAVE", name));
+		release(name);
+	}
+
+	public void chat(String text) {
+		publish(new ClusterMessage("CHAT", text));
+	}
+
+	public void room(String room, String text) {
+		publish(new ClusterMessage("ROOM", room, text));
+	}
+
+	// passes on a message with a user's text, unless it is too long for the other nodes to
+	// accept, which would make them drop the connection to this node
+	private void publish(ClusterMessage message) {
+		if (fits(message)) {
+			bus.publish(message);
+		}
+	}
+
+	private boolean fits(ClusterMessage message) {
+		if (message.fits()) {
+			return true;
+		}
+		ServerContext.events.warn(EventLog.Event.CLUSTER, null,
+				"not passing on a " + message.type + " message which is too long for the other nodes", null);
+		return false;
+	}
+
+	// node of a user on another node, or null
+	public String nodeOf(String name) {
+		RemoteUser user = remoteUsers.get(name);
+		return user == null ? null : user.node;
+	}
+
+	public void privateMessage(String node, String name, String text) {
+		ClusterMessage message = new ClusterMessage("PRIVATE", name, text);
+		if (fits(message)) {
+			bus.send(node, message);
+		}
+	}
+
+	public RemoteUser remoteUser(String name) {
+		return remoteUsers.get(name);
+	}
+
+	public List<RemoteUser> remoteUsers() {
+		return new ArrayList<>(remoteUsers.values());
+	}
+
+	public int remoteUserCount() {
+		return remoteUsers.size();
+	}
+
+	// ids of the nodes which are up, this one included, in id order
+	public List<String> nodes() {
+		synchronized (live) {
+			return new ArrayList<>(live);
+		}
+	}
+
+	// name of the cluster's coordinator, or null
+	public String coordinator() {
+		synchronized (live) {
+			for (String candidate : live) {
+				String name = coordinators.get(candidate);
+				if (name != null) {
+					return name;
+				}
+			}
+		}
+		return null;
+	}
+
+	// called when this node's coordinator changes, announces the cluster's coordinator if it changed
+	public void coordinatorChanged() {
+		String local = host.coordinator();
+		String name = local == null ? "" : local;
+		bus.publish(new ClusterMessage("COORDINATOR", name));
+		updateCoordinator(node, name);
+	}
+
+	private void updateCoordinator(String from, String name) {
+		String before = coordinator();
+		if (name.isEmpty()) {
+			coordinators.remove(from);
+		}
+		else {
+			coordinators.put(from, name);
+		}
+		announceCoordinator(before);
+	}
+
+	private void announceCoordinator(String before) {
+		String after = coordinator();
+		if (after != null && !after.equals(before)) {
+			host.broadcast("Coordinator changed. The new coordinator is " + after);
+		}
+	}
+
+	@Override
+	public void onMessage(String from, ClusterMessage message) {
+		String[] args = message.args;
+		switch (message.type) {
+		case "CHAT":
+			host.chat(args[0]);
+			break;
+		case "ROOM":
+			host.room(args[0], args[1]);
+			break;
+		case "PRIVATE":
+			host.privateMessage(args[0], args[1]);
+			break;
+		case "JOIN":
+			if (remoteUsers.put(args[0], new RemoteUser(args[0], from, args[1], args[2])) == null) {
+				host.joined(args[0]);
+			}
+			// private messages kept here for the user go to the node they joined on
+			for (String text : host.takeMail(args[0])) {
+				privateMessage(from, args[0], text);
+			}
+			break;
+		case "LEAVE":
+			RemoteUser user = remoteUsers.get(args[0]);
+			if (user != null && user.node.equals(from) && remoteUsers.remove(args[0], user)) {
+				host.left(args[0]);
+			}
+			break;
+		case "COORDINATOR":
+			updateCoordinator(from, args[0]);
+			break;
+		case "CLAIM":
+			boolean granted = grant(args[1], from);
+			bus.send(from, new ClusterMessage("CLAIMED", args[0], granted ? "1" : "0"));
+			break;
+		case "CLAIMED":
+			answer(Long.parseLong(args[0]), args[1].equals("1"));
+			break;
+		case "RELEASE":
+			claims.remove(args[0], from);
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void onNodeUp(String other) {
+		synchronized (live) {
+			live.add(other);
+		}
+		// tell the node who is here, then take the names it now owns to it
+		for (RemoteUser user : host.users()) {
+			bus.send(other, new ClusterMessage("JOIN", user.name, user.address, user.port));
+		}
+		String local = host.coordinator();
+		bus.send(other, new ClusterMessage("COORDINATOR", local == null ? "" : local));
+		reclaimNames();
+	}
+
+	@Override
+	public void onNodeDown(String other) {
+		String before = coordinator();
+		synchronized (live) {
+			live.remove(other);
+		}
+		coordinators.remove(other);
+
+		// the node's users are gone
+		for (RemoteUser user : remoteUsers.values()) {
+			if (user.node.equals(other) && remoteUsers.remove(user.name, user)) {
+				host.left(user.name);
+			}
+		}
+		claims.values().removeIf(holder -> holder.equals(other));
+		for (Map.Entry<Long, PendingClaim> entry : pending.entrySet()) {
+			if (entry.getValue().owner.equals(other)) {
+				answer(entry.getKey(), false);
+			}
+		}
+		announceCoordinator(before);
+		reclaimNames();
+	}
+
+	// after a node has come or gone names may have new owners, which need to hear about the
+	// names this node's users have, and names this node no longer owns are forgotten
+	private void reclaimNames() {
+		claims.keySet().removeIf(name -> !owner(name).equals(node));
+		for (String name : host.names()) {
+			String owner = owner(name);
+			if (owner.equals(node)) {
+				grant(name, node);
+			}
+			else {
+				// the answer does not matter, an id of 0 is never waited for
+				bus.send(owner, new ClusterMessage("CLAIM", "0", name));
+			}
+		}
+	}
+}
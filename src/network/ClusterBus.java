@@ -0,0 +1,33 @@
+package network;
+
+import java.io.IOException;
+
+// Carries ClusterMessages between the nodes of a cluster. TcpMeshBus connects real server
+// processes, LoopbackBus connects buses within one process for testing. A bus delivers the
+// messages from each node in the order they were sent, and tells the listener when a node
+// becomes reachable or is lost, before any message from it and after the last one.
+// Sending never waits on the network, a node which cannot keep up is disconnected instead.
+public interface ClusterBus {
+
+	interface Listener {
+		void onMessage(String from, ClusterMessage message);
+
+		void onNodeUp(String node);
+
+		void onNodeDown(String node);
+	}
+
+	// id of this node, unique within the cluster
+	String node();
+
+	// connects to the other nodes and starts passing what they send to the listener
+	void start(Listener listener) throws IOException;
+
+	// sends a message to every other node, once per node
+	void publish(ClusterMessage message);
+
+	// sends a message to one node, dropped if it is not reachable
+	void send(String node, ClusterMessage message);
+
+	void close();
+}
@@ -0,0 +1,39 @@
+package network;
+
+import java.util.List;
+
+// What a Cluster needs from the server it runs in: the users of this node, and somewhere to
+// hand what the other nodes send. ServerClusterHost is the running server, tests give each
+// Cluster a host of its own so several nodes can run in one process over a LoopbackBus.
+// The Cluster calls these from the bus threads as well as from the threads of this node's users.
+public interface ClusterHost {
+
+	// the users of this node who have joined the chat, as the other nodes see them
+	List<Cluster.RemoteUser> users();
+
+	// the names of this node's users, including those still waiting for the cluster to agree
+	List<String> names();
+
+	// name of this node's coordinator, or null
+	String coordinator();
+
+	// a message another node's user sent to the whole chat
+	void chat(String text);
+
+	// a message another node's user sent to a room
+	void room(String room, String text);
+
+	// a private message for a user of this node
+	void privateMessage(String name, String text);
+
+	// removes and returns the private messages kept here for a user
+	List<String> takeMail(String name);
+
+	// a user of another node has joined or left the chat
+	void joined(String name);
+
+	void left(String name);
+
+	// a notice for every user of this node
+	void broadcast(String text);
+}
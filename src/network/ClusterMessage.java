@@ -0,0 +1,80 @@
+package network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// One message passed between the nodes of a cluster, a type followed by its arguments, see Cluster.
+// On the wire it is the number of strings, then each string as a 4 byte length and UTF-8 bytes.
+class ClusterMessage {
+	private static final int MAX_STRINGS = 16;
+
+	// longest string a node accepts from another: a chat text with the time, room and sender's name
+	// in front, where the text and the name may each be as long as a frame from a client
+	public static final int MAX_LENGTH = 2 * ServerConfig.MAX_FRAME + 1024;
+
+	public final String type;
+	public final String[] args;
+
+	public ClusterMessage(String type, String... args) {
+		this.type = type;
+		this.args = args;
+	}
+
+	// returns whether the other nodes accept every string of the message
+	public boolean fits() {
+		if (!fits(type)) {
+			return false;
+		}
+		for (String arg : args) {
+			if (!fits(arg)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean fits(String s) {
+		// a char takes at most 3 bytes, only long strings need to be measured
+		return s.length() * 3 <= MAX_LENGTH || s.getBytes(StandardCharsets.UTF_8).length <= MAX_LENGTH;
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(args.length + 1);
+		writeString(out, type);
+		for (String arg : args) {
+			writeString(out, arg);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	// reads the next message, strings longer than maxLength bytes are refused
+	public static ClusterMessage read(DataInputStream in, int maxLength) throws IOException {
+		int count = in.readInt();
+		if (count < 1 || count > MAX_STRINGS) {
+			throw new IOException("Invalid cluster message with " + count + " strings");
+		}
+		String type = readString(in, maxLength);
+		String[] args = new String[count - 1];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = readString(in, maxLength);
+		}
+		return new ClusterMessage(type, args);
+	}
+
+	private static String readString(DataInputStream in, int maxLength) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > maxLength) {
+			throw new IOException("Invalid cluster message string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
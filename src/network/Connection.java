@@ -0,0 +1,49 @@
+package network;
+
+import java.net.Socket;
+
+// A transport carrying the traffic of one user. ServerWorker implements this over a blocking
+// socket, NioConnection over a non-blocking channel owned by an EventLoop. The connection reads
+// messages from the client and passes them to its Session, the Session writes back through send().
+// A connection speaks the text protocol until the client asks for frames (see FrameCodec), after
+// which control messages and chat text travel in separate frames.
+public interface Connection {
+
+	// writes chat text to the client, safe to call from any thread
+	void send(String text);
+
+	// writes a control message such as PING or NAME_ACCEPTED to the client
+	void sendControl(String message);
+
+	// writes a message shared with other connections, encoded for this connection's protocol
+	void send(SharedMessage message);
+
+	// writes chat text preceded by a SEQ frame carrying its sequence number, framed protocol only
+	void send(long seq, String text);
+
+	void send(long seq, SharedMessage message);
+
+	// hands everything the connection reads to another session, used when resuming a session
+	// and only called from the thread which passes messages to the session
+	void setSession(Session session);
+
+	// called once the client has joined the chat or resumed a session, which ends its handshake
+	void joined();
+
+	// closes the connection once anything already sent has been written, safe to call more than once
+	void close();
+
+	// closes the connection straight away, dropping anything not yet written, safe to call from any thread
+	void abort();
+
+	boolean isClosed();
+
+	// messages waiting to be written to the client
+	int queued();
+
+	// returns whether the client has switched to the framed protocol
+	boolean isFramed();
+
+	// socket used as the key for this user and to describe the connection (address and port)
+	Socket socket();
+}
@@ -0,0 +1,117 @@
+package network;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Keeps track of which user is the coordinator and picks a new one at random when they leave.
+// Candidates are the users who have joined the chat, held in an array where each session knows
+// its own index, so adding, removing (by moving the last member into the gap) and picking at
+// random all take constant time however many users there are. The lock only guards the array
+// for those few steps. The coordinator itself is an AtomicReference which only ever changes by
+// compareAndSet from the value a thread saw, so when several users leave at once exactly one of
+// them wins each change and only that one reports it.
+public class CoordinatorElection {
+	// how many random picks to make while looking for a candidate whose connection is still open
+	private static final int PICK_ATTEMPTS = 3;
+
+	private final AtomicReference<Session> coordinator = new AtomicReference<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private Session[] members = new Session[16];
+	private int size = 0;
+
+	public Session coordinator() {
+		return coordinator.get();
+	}
+
+	// adds a user who has joined the chat, returns true if they became the coordinator
+	public boolean join(Session session) {
+		lock.lock();
+		try {
+			if (session.memberIndex >= 0) {
+				return false;
+			}
+			if (size == members.length) {
+				members = Arrays.copyOf(members, size * 2);
+			}
+			members[size] = session;
+			session.memberIndex = size++;
+		} finally {
+			lock.unlock();
+		}
+
+		return coordinator.compareAndSet(null, session);
+	}
+
+	// removes a user who is leaving the chat. If they were the coordinator a new one is elected
+	// and returned, so that the caller can announce it. Returns null if the coordinator did not
+	// change, or if another thread has taken over the election and will announce it instead.
+	public Session leave(Session session) {
+		lock.lock();
+		try {
+			int index = session.memberIndex;
+			if (index < 0) {
+				return null;
+			}
+			Session last = members[--size];
+			members[index] = last;
+			last.memberIndex = index;
+			members[size] = null;
+			session.memberIndex = -1;
+		} finally {
+			lock.unlock();
+		}
+
+		if (coordinator.get() != session) {
+			return null;
+		}
+		return elect(session);
+	}
+
+	// replaces old with a random member, retrying while the new coordinator turns out to have
+	// left already or a member joined just as the last one left
+	private Session elect(Session old) {
+		while (true) {
+			Session candidate = pick();
+			if (!coordinator.compareAndSet(old, candidate)) {
+				// someone else has changed the coordinator since and reports it
+				return null;
+			}
+
+			if (candidate == null ? !isEmpty() : candidate.memberIndex < 0) {
+				old = candidate;
+				continue;
+			}
+			return candidate;
+		}
+	}
+
+	// picks a random member, preferring one whose connection is still open
+	// so a mass disconnect does not pass the role from one leaving user to the next
+	private Session pick() {
+		lock.lock();
+		try {
+			Session candidate = null;
+			for (int i = 0; i < PICK_ATTEMPTS && size > 0; i++) {
+				candidate = members[ThreadLocalRandom.current().nextInt(size)];
+				if (!candidate.connection.isClosed()) {
+					break;
+				}
+			}
+			return candidate;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isEmpty() {
+		lock.lock();
+		try {
+			return size == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
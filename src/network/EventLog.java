@@ -0,0 +1,263 @@
+package network;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Log of what goes wrong in the server, written to System.err by a thread of its own.
+// A thread reporting an event only builds a small record and puts it on a bounded lock-free ring,
+// so a thousand sockets breaking at once cost each of their threads a few atomic operations
+// instead of queueing them all on the lock of System.err. When the ring is full events are dropped
+// and counted, the log never makes anyone wait. Events of the same kind with the same exception
+// are limited to chat.eventBurst per second; those beyond it are only counted and the count is
+// added to the next one which gets through. Each event is one line of key=value pairs, e.g.
+//   2026-01-01T12:00:00.000Z WARN connection_lost session=42 user=bob thread=streamReader-7
+//     error="java.net.SocketException: Connection reset" suppressed=3
+// only events at ERROR level, which mean a bug rather than a bad connection, get a stack trace.
+class EventLog {
+	enum Level {
+		INFO,
+		WARN,
+		ERROR
+	}
+
+	// what the event is about
+	enum Event {
+		// a connection broke, or a client broke the protocol
+		CONNECTION_LOST,
+		// a new connection could not be set up
+		CONNECTION_SETUP,
+		// a socket could not be closed cleanly
+		CONNECTION_CLOSE,
+		EVENT_LOOP,
+		TIMER,
+		MESSAGE_LOG,
+		CLUSTER,
+		// a client connected or sent faster than the RateLimits allow
+		RATE_LIMIT,
+		// the AdmissionController turned a connection away
+		OVERLOAD,
+		// starting and stopping the server
+		SERVER;
+
+		final String label = name().toLowerCase();
+	}
+
+	private static final long WINDOW_MILLIS = 1000;
+
+	// one event waiting to be written
+	private static class Record {
+		final long time;
+		final Level level;
+		final Event event;
+		final long session;
+		final String user;
+		final String thread;
+		final String message;
+		final Throwable error;
+		final long suppressed;
+
+		Record(Level level, Event event, Session session, String message, Throwable error, long suppressed) {
+			time = System.currentTimeMillis();
+			this.level = level;
+			this.event = event;
+			this.session = session == null ? -1 : session.id;
+			user = session == null ? null : session.userName;
+			thread = Thread.currentThread().getName();
+			this.message = message;
+			this.error = error;
+			this.suppressed = suppressed;
+		}
+	}
+
+	// how many events of one kind have been let through in the current window
+	private static class Limiter {
+		final AtomicLong windowStart = new AtomicLong();
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicLong suppressed = new AtomicLong();
+
+		// returns -1 if the event is to be dropped, otherwise how many were dropped before it
+		long allow(long now) {
+			long start = windowStart.get();
+			if (now - start >= WINDOW_MILLIS && windowStart.compareAndSet(start, now)) {
+				count.set(0);
+			}
+			if (count.incrementAndGet() > ServerConfig.EVENT_BURST) {
+				suppressed.incrementAndGet();
+				return -1;
+			}
+			return suppressed.getAndSet(0);
+		}
+	}
+
+	// limiters for each event by exception class, events without an exception use EventLog.class
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final ConcurrentHashMap<Class<?>, Limiter>[] limiters = new ConcurrentHashMap[Event.values().length];
+
+	// bounded multi-producer ring: a slot may be written when its sequence equals the position
+	// being claimed and read once it is one more, after which it is set a lap further on
+	private final int mask;
+	private final AtomicReferenceArray<Record> slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	// only touched by the writer thread
+	private long head = 0;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final PrintStream out;
+	private final Thread writer;
+	// set while the writer is parked waiting for events
+	private volatile boolean waiting = false;
+	private volatile boolean closed = false;
+
+	public EventLog(PrintStream out, int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = size - 1;
+		slots = new AtomicReferenceArray<>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		for (int i = 0; i < limiters.length; i++) {
+			limiters[i] = new ConcurrentHashMap<>();
+		}
+		this.out = out;
+		writer = new Thread(this::write, "eventLog");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public void info(Event event, Session session, String message) {
+		log(Level.INFO, event, session, message, null);
+	}
+
+	public void warn(Event event, Session session, String message, Throwable error) {
+		log(Level.WARN, event, session, message, error);
+	}
+
+	public void error(Event event, Session session, String message, Throwable error) {
+		log(Level.ERROR, event, session, message, error);
+	}
+
+	public void log(Level level, Event event, Session session, String message, Throwable error) {
+		Class<?> kind = error == null ? EventLog.class : error.getClass();
+		Limiter limiter = limiters[event.ordinal()].get(kind);
+		if (limiter == null) {
+			limiter = limiters[event.ordinal()].computeIfAbsent(kind, key -> new Limiter());
+		}
+		long suppressed = limiter.allow(System.currentTimeMillis());
+		if (suppressed < 0) {
+			return;
+		}
+		if (!offer(new Record(level, event, session, message, error, suppressed))) {
+			dropped.incrementAndGet();
+			return;
+		}
+		if (waiting) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	private boolean offer(Record record) {
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots.set(index, record);
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			}
+			else if (difference < 0) {
+				// a lap behind, the ring is full
+				return false;
+			}
+			else {
+				position = tail.get();
+			}
+		}
+	}
+
+	private Record poll() {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+		Record record = slots.get(index);
+		slots.set(index, null);
+		sequences.set(index, head + mask + 1);
+		head++;
+		return record;
+	}
+
+	// runs on the writer thread, flushing whenever the ring has been emptied
+	private void write() {
+		while (true) {
+			Record record = poll();
+			if (record != null) {
+				print(record);
+				continue;
+			}
+
+			long missed = dropped.getAndSet(0);
+			if (missed > 0) {
+				out.println(Instant.now() + " WARN event_log message=\"" + missed +
+						" events were dropped, the log is falling behind\"");
+			}
+			out.flush();
+			if (closed) {
+				return;
+			}
+
+			waiting = true;
+			if (sequences.get((int) head & mask) != head + 1) {
+				LockSupport.parkNanos(WINDOW_MILLIS * 1_000_000);
+			}
+			waiting = false;
+		}
+	}
+
+	private void print(Record record) {
+		StringBuilder line = new StringBuilder(128);
+		line.append(Instant.ofEpochMilli(record.time)).append(' ').append(record.level).append(' ').append(record.event.label);
+		if (record.session >= 0) {
+			line.append(" session=").append(record.session);
+		}
+		if (record.user != null) {
+			line.append(" user=").append(record.user);
+		}
+		line.append(" thread=").append(record.thread);
+		if (record.message != null) {
+			line.append(" message=\"").append(record.message).append('"');
+		}
+		if (record.error != null) {
+			line.append(" error=\"").append(record.error).append('"');
+		}
+		if (record.suppressed > 0) {
+			line.append(" suppressed=").append(record.suppressed);
+		}
+		out.println(line);
+		if (record.level == Level.ERROR && record.error != null) {
+			record.error.printStackTrace(out);
+		}
+	}
+
+	// writes out everything already logged, used when the server stops
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(WINDOW_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
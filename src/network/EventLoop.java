@@ -0,0 +1,102 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs on its own thread and services every NioConnection registered with its Selector.
+// Other threads never touch the channels directly, instead they hand work to the loop with
+// execute(), which wakes the selector up if it is currently waiting.
+class EventLoop implements Runnable {
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+	private volatile Thread thread;
+
+	// only the loop thread reads from channels, so every connection on this loop shares one buffer
+	final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+
+	public EventLoop() throws IOException {
+		selector = Selector.open();
+	}
+
+	// returns whether the calling thread is this loop's thread
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	// runs a task on the loop thread
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	// hands a newly accepted channel over to this loop
+	public void register(SocketChannel channel, AdmissionController.Ticket ticket) {
+		execute(() -> {
+			NioConnection connection = new NioConnection(this, channel, ticket);
+			try {
+				connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+			} catch (IOException e) {
+				ServerContext.events.warn(EventLog.Event.CONNECTION_SETUP, null, "could not register the channel", e);
+				connection.closeNow();
+			}
+		});
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				ServerContext.events.error(EventLog.Event.EVENT_LOOP, null, "task failed", e);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+
+		while (selector.isOpen()) {
+			try {
+				// tasks queued by the loop itself do not wake the selector, so do not wait for them
+				if (tasks.isEmpty()) {
+					selector.select();
+				}
+				else {
+					selector.selectNow();
+				}
+			} catch (IOException e) {
+				ServerContext.events.error(EventLog.Event.EVENT_LOOP, null, "selector failed, the loop has stopped", e);
+				return;
+			}
+			wakeupPending.set(false);
+			runTasks();
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				NioConnection connection = (NioConnection) key.attachment();
+				try {
+					connection.handle(key);
+				} catch (RuntimeException e) {
+					// a failing user must never take the rest of the loop down with it
+					ServerContext.events.error(EventLog.Event.EVENT_LOOP, connection.session(), "connection failed", e);
+					connection.closeNow();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package network;
+
+// One message of the framed protocol, see FrameCodec.
+// TEXT frames carry chat text typed by a user or shown to them.
+// CONTROL frames carry protocol messages such as READY, PING or NAME_ACCEPTED, so they can
+// never be confused with a user typing the same words.
+// SEQ frames carry the sequence number of the TEXT frame which follows them, they are only sent
+// to clients which have asked to be able to resume their session, see SessionReplay.
+// LINE is never sent on the wire, it marks a line of the text protocol where the receiver has to
+// work out from the content whether it is a control message.
+public class Frame {
+	public static final byte LINE = 0;
+	public static final byte TEXT = 1;
+	public static final byte CONTROL = 2;
+	public static final byte SEQ = 3;
+
+	public final byte opcode;
+	public final String payload;
+
+	public Frame(byte opcode, String payload) {
+		this.opcode = opcode;
+		this.payload = payload;
+	}
+}
@@ -0,0 +1,67 @@
+package network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Binary framing used when client and server agree on it, alongside the original text protocol.
+// Every frame is a 4 byte big-endian length, then a 1 byte opcode, then the UTF-8 payload,
+// where the length counts the opcode and the payload.
+//
+// A client asks for frames by sending HELLO as its first line. The server answers with the
+// line HELLO_OK and from then on both sides only send frames. Clients which start with their
+// name keep using the text protocol.
+public class FrameCodec {
+	public static final String HELLO = "FRAMED_V1";
+	public static final String HELLO_OK = "FRAMED_OK";
+
+	public static final int HEADER_LENGTH = 5;
+
+	private FrameCodec() {
+
+	}
+
+	// encodes a frame into a new heap buffer, ready for reading
+	public static ByteBuffer encode(byte opcode, String payload) {
+		byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + bytes.length);
+		buffer.putInt(bytes.length + 1).put(opcode).put(bytes).flip();
+		return buffer;
+	}
+
+	// writes a frame to a blocking stream, the caller flushes
+	public static void write(DataOutputStream out, byte opcode, String payload) throws IOException {
+		byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length + 1);
+		out.writeByte(opcode);
+		out.write(bytes);
+	}
+
+	// reads the next frame from a blocking stream, returns null once the stream has ended
+	public static Frame read(DataInputStream in, int maxLength) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (length < 1 || length > maxLength) {
+			throw new IOException("Invalid frame length " + length);
+		}
+
+		byte opcode = in.readByte();
+		byte[] payload = new byte[length - 1];
+		in.readFully(payload);
+		return new Frame(opcode, new String(payload, StandardCharsets.UTF_8));
+	}
+
+	// writes a line of the text protocol
+	public static void writeLine(OutputStream out, String line) throws IOException {
+		out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+}
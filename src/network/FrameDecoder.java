@@ -0,0 +1,51 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Puts frames back together from the pieces a non-blocking channel hands over.
+// Feed it every buffer read from the channel, decode() returns frames as they complete.
+class FrameDecoder {
+	private final int maxLength;
+	private final ByteBuffer lengthBytes = ByteBuffer.allocate(4);
+
+	// opcode and payload of the frame being read, null while reading the length
+	private byte[] body;
+	private int bodyLength;
+
+	public FrameDecoder(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	// returns the next complete frame in the buffer, or null if more bytes are needed
+	public Frame decode(ByteBuffer in) throws IOException {
+		if (body == null) {
+			while (lengthBytes.hasRemaining() && in.hasRemaining()) {
+				lengthBytes.put(in.get());
+			}
+			if (lengthBytes.hasRemaining()) {
+				return null;
+			}
+
+			int length = lengthBytes.getInt(0);
+			if (length < 1 || length > maxLength) {
+				throw new IOException("Invalid frame length " + length);
+			}
+			body = new byte[length];
+			bodyLength = 0;
+		}
+
+		int count = Math.min(in.remaining(), body.length - bodyLength);
+		in.get(body, bodyLength, count);
+		bodyLength += count;
+		if (bodyLength < body.length) {
+			return null;
+		}
+
+		Frame frame = new Frame(body[0], new String(body, 1, body.length - 1, StandardCharsets.UTF_8));
+		body = null;
+		lengthBytes.clear();
+		return frame;
+	}
+}
@@ -0,0 +1,11 @@
+package network;
+
+// This enum class is used to decide when the message log forces what it has written to disk.
+// ALWAYS syncs after every batch of messages, a message survives a crash once its batch is written.
+// INTERVAL syncs at most every chat.logFsyncMillis, a crash may lose the messages of that interval.
+// NEVER leaves it to the operating system, only a crash of the server process itself is safe.
+enum FsyncPolicy {
+	ALWAYS,
+	INTERVAL,
+	NEVER
+}
@@ -0,0 +1,61 @@
+package network;
+
+// Deadlines for a new connection to get through the handshake, so a client which connects and
+// then says nothing, or sends its name a byte at a time, cannot hold on to its connection (and in
+// blocking mode its threads) for ever. From the moment the session is created the client has
+// chat.nameWaitMillis to have a name accepted, however many it tries, and from then on
+// chat.readyWaitMillis to send READY. Each step is a single timeout on the server's TimerWheel,
+// so waiting clients cost nothing until their deadline comes; a client which misses it is
+// disconnected like one which stops answering pings, which also frees its place among the
+// handshakes the AdmissionController allows.
+class Handshake {
+	private final Session session;
+
+	private volatile boolean done = false;
+	private volatile TimerWheel.Timeout timeout;
+
+	public Handshake(Session session) {
+		this.session = session;
+	}
+
+	// starts the deadline for a name, called when the session is created
+	public void awaitName() {
+		schedule("a name", ServerConfig.NAME_WAIT_MILLIS);
+	}
+
+	// replaces the deadline for a name with the one for READY once the name has been accepted
+	public void awaitReady() {
+		cancel();
+		schedule("READY", ServerConfig.READY_WAIT_MILLIS);
+	}
+
+	// called once the user has joined the chat, resumed a session or left
+	public void done() {
+		done = true;
+		cancel();
+	}
+
+	private void schedule(String step, long delayMillis) {
+		timeout = ServerContext.timer.schedule(() -> expire(step), delayMillis);
+		if (done) {
+			timeout.cancel();
+		}
+	}
+
+	private void cancel() {
+		TimerWheel.Timeout current = timeout;
+		if (current != null) {
+			current.cancel();
+		}
+	}
+
+	// runs on the timer thread when the client has taken too long
+	private void expire(String step) {
+		if (done) {
+			return;
+		}
+		ServerContext.metrics.handshakeTimeouts.increment();
+		ServerContext.events.info(EventLog.Event.CONNECTION_LOST, session, "took too long to send " + step);
+		session.evict();
+	}
+}
@@ -0,0 +1,85 @@
+package network;
+
+// Checks that one user is still connected, replacing the pings the coordinator's client used to
+// ask the server for. Every message read from the user counts as a sign of life and only updates
+// a timestamp. A single timeout per user waits on the server's TimerWheel: when it expires and
+// the user has sent something within chat.heartbeatMillis it is simply moved on, otherwise the
+// user is sent a PING. A user who lets chat.heartbeatMisses pings in a row go unanswered, each
+// within chat.pingTimeoutMillis, is disconnected. Busy users are therefore never pinged, and a
+// tick only does work for the users whose timeout has expired.
+class Heartbeat {
+	private final Session session;
+
+	// when the user was last heard from, in TimerWheel time
+	private volatile long lastSeen;
+	private volatile boolean stopped = false;
+	private volatile TimerWheel.Timeout timeout;
+
+	// pings sent since the user was last heard from, only touched on the timer thread
+	private int missed = 0;
+	// System.nanoTime() when the first unanswered ping was sent, 0 if none is
+	private volatile long pingSent = 0;
+
+	public Heartbeat(Session session) {
+		this.session = session;
+	}
+
+	// starts checking once the user has joined the chat, or again once they have resumed
+	public void start() {
+		stopped = false;
+		lastSeen = ServerContext.timer.now();
+		schedule(ServerConfig.HEARTBEAT_MILLIS);
+	}
+
+	// called for every message read from the user
+	public void touch() {
+		lastSeen = ServerContext.timer.now();
+		long sent = pingSent;
+		if (sent != 0) {
+			pingSent = 0;
+			ServerContext.metrics.pingNanos.record(System.nanoTime() - sent);
+		}
+	}
+
+	public void stop() {
+		stopped = true;
+		TimerWheel.Timeout current = timeout;
+		if (current != null) {
+			current.cancel();
+		}
+	}
+
+	private void schedule(long delayMillis) {
+		timeout = ServerContext.timer.schedule(this::check, delayMillis);
+		if (stopped) {
+			timeout.cancel();
+		}
+	}
+
+	// runs on the timer thread when the user's timeout expires
+	private void check() {
+		if (stopped) {
+			return;
+		}
+
+		long idle = ServerContext.timer.now() - lastSeen;
+		if (idle < ServerConfig.HEARTBEAT_MILLIS) {
+			// heard from recently, check again once they could have gone quiet
+			missed = 0;
+			schedule(ServerConfig.HEARTBEAT_MILLIS - idle);
+		}
+		else if (missed < ServerConfig.HEARTBEAT_MISSES) {
+			if (missed == 0) {
+				pingSent = System.nanoTime();
+			}
+			missed++;
+			ServerContext.metrics.pingsSent.increment();
+			session.sendControl("PING");
+			schedule(ServerConfig.PING_TIMEOUT_MILLIS);
+		}
+		else {
+			ServerContext.metrics.evictions.increment();
+			session.evict();
+		}
+	}
+}
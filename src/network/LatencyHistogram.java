@@ -0,0 +1,82 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counts latencies in nanoseconds so percentiles can be read off without keeping every sample.
+// Values below 128 get a bucket each, above that every power of two is split into 64 buckets,
+// so a percentile is never more than about 1.6% above the true value whatever its size.
+// Recording is a single atomic increment, so many threads can record into one histogram.
+// Values above MAX_VALUE (about 18 minutes) are counted as MAX_VALUE.
+public class LatencyHistogram {
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	private static final int SUB_BUCKETS = 64;
+	private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+	public void record(long nanos) {
+		counts.incrementAndGet(index(Math.max(0, Math.min(nanos, MAX_VALUE))));
+	}
+
+	private static int index(long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		// shift so the top 7 bits remain, which always start with a one
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	// largest value counted in a bucket
+	private static long highest(int index) {
+		if (index < LINEAR_BUCKETS) {
+			return index;
+		}
+		int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long top = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+
+	public long count() {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	// returns the value which the given fraction of the recorded values are at or below,
+	// e.g. 0.99 for the 99th percentile, or 0 if nothing has been recorded
+	public long percentile(double fraction) {
+		long total = count();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return highest(i);
+			}
+		}
+		return MAX_VALUE;
+	}
+
+	// largest value recorded, rounded up to the end of its bucket
+	public long max() {
+		for (int i = counts.length() - 1; i >= 0; i--) {
+			if (counts.get(i) > 0) {
+				return highest(i);
+			}
+		}
+		return 0;
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Splits bytes into lines of UTF-8 text, accepting both \n and \r\n line endings.
+// Feed it every buffer read, decode() returns lines as they complete. A line which fits in a
+// heap buffer is turned into a String straight from that buffer, only a line spread over several
+// reads (or read into a direct buffer) is copied into the decoder's own array first, which is
+// reused for every line. A line longer than maxLength is refused, so a client which never sends
+// a new line cannot make the server buffer without limit.
+class LineDecoder {
+	private final int maxLength;
+
+	// bytes of a line which has not been terminated yet
+	private byte[] partial = new byte[128];
+	private int partialLength = 0;
+
+	public LineDecoder(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	// returns the next complete line in the buffer, or null if more bytes are needed
+	public String decode(ByteBuffer in) throws IOException {
+		int start = in.position();
+		int limit = in.limit();
+		int end = start;
+		while (end < limit && in.get(end) != '\n') {
+			end++;
+		}
+
+		int length = end - start;
+		if (partialLength + length > maxLength) {
+			throw new IOException("Line longer than " + maxLength + " bytes");
+		}
+
+		if (end == limit) {
+			// no new line yet, keep what has arrived for the next call
+			append(in, length);
+			return null;
+		}
+
+		String line;
+		if (partialLength == 0 && in.hasArray()) {
+			if (length > 0 && in.get(end - 1) == '\r') {
+				length--;
+			}
+			line = new String(in.array(), in.arrayOffset() + start, length, StandardCharsets.UTF_8);
+			in.position(end + 1);
+		}
+		else {
+			append(in, length);
+			in.get();
+			line = takePartial();
+		}
+		return line;
+	}
+
+	// returns whatever is left of a line the stream ended without terminating, or null if nothing is
+	public String finish() {
+		return partialLength == 0 ? null : takePartial();
+	}
+
+	private String takePartial() {
+		int length = partialLength;
+		if (length > 0 && partial[length - 1] == '\r') {
+			length--;
+		}
+		String line = new String(partial, 0, length, StandardCharsets.UTF_8);
+		partialLength = 0;
+		return line;
+	}
+
+	private void append(ByteBuffer in, int length) {
+		if (partialLength + length > partial.length) {
+			partial = Arrays.copyOf(partial, Math.max(partialLength + length, partial.length * 2));
+		}
+		in.get(partial, partialLength, length);
+		partialLength += length;
+	}
+}
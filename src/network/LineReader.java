@@ -0,0 +1,84 @@
+package network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Reads lines of UTF-8 text from a blocking stream, used in place of Scanner on both the server
+// and the client. Bytes are read into one reusable buffer and handed to a LineDecoder, so reading
+// a line costs a single String rather than Scanner's regex matching and CharBuffer copies.
+// The reader is also an InputStream over the bytes it has buffered but not yet returned as lines,
+// which lets a connection switch from lines to frames without losing anything read ahead.
+public class LineReader extends InputStream {
+	// no limit a server would need, just enough to stop a broken peer filling memory
+	public static final int DEFAULT_MAX_LINE = 1024 * 1024;
+
+	private final InputStream in;
+	private final LineDecoder decoder;
+	private final ByteBuffer buffer = ByteBuffer.allocate(8192).flip();
+
+	public LineReader(InputStream in, int maxLength) {
+		this.in = in;
+		decoder = new LineDecoder(maxLength);
+	}
+
+	public LineReader(InputStream in) {
+		this(in, DEFAULT_MAX_LINE);
+	}
+
+	// waits for the next line, returns null once the stream has ended
+	// throws IOException if the line is longer than the maximum length
+	public String readLine() throws IOException {
+		while (true) {
+			String line = decoder.decode(buffer);
+			if (line != null) {
+				return line;
+			}
+			if (fill() < 0) {
+				return decoder.finish();
+			}
+		}
+	}
+
+	// reads more bytes into the buffer, returns -1 at the end of the stream
+	private int fill() throws IOException {
+		buffer.compact();
+		int count = in.read(buffer.array(), buffer.position(), buffer.remaining());
+		if (count > 0) {
+			buffer.position(buffer.position() + count);
+		}
+		buffer.flip();
+		return count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!buffer.hasRemaining() && fill() < 0) {
+			return -1;
+		}
+		return buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining() && fill() < 0) {
+			return -1;
+		}
+		int count = Math.min(len, buffer.remaining());
+		buffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.remaining() + in.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
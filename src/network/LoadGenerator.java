@@ -0,0 +1,408 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless load test for a running server. Simulates many users in one process, each speaking
+// the text protocol like ChatClient: it sends a name, READY once the name is accepted, answers
+// PINGs, and then sends messages to the chat, to a room or privately to another simulated user.
+// Every message carries the time it was due to be sent, and every user receiving it records how
+// long it took into a LatencyHistogram. Using the due time rather than the time it actually went
+// out means a generator which falls behind shows up in the latencies instead of hiding them.
+// Own messages echoed back, history replayed on joining a room and kept private messages are not
+// counted. Users are spread over a few selector threads, so thousands of them need no more threads.
+// A report is printed every load.reportSeconds and a summary at the end, e.g.
+//   java -Dload.port=5000 -Dload.users=2000 -Dload.messageRate=0.5 -cp out network.LoadGenerator
+//
+// load.host            address of the server, 127.0.0.1 by default
+// load.port            port of the server, required
+// load.users           simulated users to connect
+// load.connectRate     new connections per second until every user is connected
+// load.messageRate     messages per second sent by each user, at random intervals
+// load.rooms           rooms the room users are spread over
+// load.roomMix         fraction of users who join a room and send their messages to it
+// load.privateMix      fraction of users who send their messages privately to another user
+// load.durationSeconds how long to run for, counted from the first connection
+// load.warmupSeconds   latencies are only recorded after this long
+// load.reportSeconds   how often to print a report
+// load.loops           selector threads the users are spread over
+// load.namePrefix      prefix of the users' names, change it to run several generators at once
+public class LoadGenerator {
+	private static final String HOST = System.getProperty("load.host", "127.0.0.1");
+	private static final int PORT = Integer.getInteger("load.port", -1);
+	private static final int USERS = Integer.getInteger("load.users", 1000);
+	private static final double CONNECT_RATE = Double.parseDouble(System.getProperty("load.connectRate", "200"));
+	private static final double MESSAGE_RATE = Double.parseDouble(System.getProperty("load.messageRate", "0.2"));
+	private static final int ROOMS = Integer.getInteger("load.rooms", 10);
+	private static final double ROOM_MIX = Double.parseDouble(System.getProperty("load.roomMix", "0"));
+	private static final double PRIVATE_MIX = Double.parseDouble(System.getProperty("load.privateMix", "0"));
+	private static final int DURATION_SECONDS = Integer.getInteger("load.durationSeconds", 60);
+	private static final int WARMUP_SECONDS = Integer.getInteger("load.warmupSeconds", 5);
+	private static final int REPORT_SECONDS = Integer.getInteger("load.reportSeconds", 5);
+	private static final int LOOPS = Integer.getInteger("load.loops", Runtime.getRuntime().availableProcessors());
+	private static final String NAME_PREFIX = System.getProperty("load.namePrefix", "load");
+
+	// start of every message sent, followed by the sender's index and the time it was due
+	private static final String MARKER = "load@";
+
+	private static final LatencyHistogram latency = new LatencyHistogram();
+	private static final AtomicLong connected = new AtomicLong();
+	private static final AtomicLong connectFailures = new AtomicLong();
+	private static final AtomicLong namesRefused = new AtomicLong();
+	private static final AtomicLong serverFull = new AtomicLong();
+	private static final AtomicLong lost = new AtomicLong();
+	private static final AtomicLong sent = new AtomicLong();
+	private static final AtomicLong delivered = new AtomicLong();
+	private static final AtomicLong skipped = new AtomicLong();
+
+	private static volatile boolean running = true;
+	private static volatile boolean recording = false;
+
+	private enum Role {
+		BROADCAST,
+		ROOM,
+		PRIVATE
+	}
+
+	// one simulated user, only ever touched by the thread of its Loop
+	private static class SimulatedUser {
+		final int index;
+		final String name;
+		final Role role;
+		final LineDecoder decoder = new LineDecoder(64 * 1024);
+		final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+		SocketChannel channel;
+		SelectionKey key;
+		boolean active = false;
+		// set while the server replays history or kept messages, which are not counted
+		boolean replaying = false;
+		// System.nanoTime() at which the next message is due
+		long nextSend;
+
+		SimulatedUser(int index) {
+			this.index = index;
+			name = NAME_PREFIX + "-" + index;
+			double position = (index % 100) / 100.0;
+			if (position < ROOM_MIX) {
+				role = Role.ROOM;
+			}
+			else if (position < ROOM_MIX + PRIVATE_MIX) {
+				role = Role.PRIVATE;
+			}
+			else {
+				role = Role.BROADCAST;
+			}
+		}
+	}
+
+	// a selector thread serving its share of the users, which also sends their messages when due
+	private static class Loop implements Runnable {
+		private final Selector selector;
+		private final Queue<SimulatedUser> added = new ConcurrentLinkedQueue<>();
+		private final PriorityQueue<SimulatedUser> due =
+				new PriorityQueue<>((a, b) -> Long.compare(a.nextSend, b.nextSend));
+		private final List<SimulatedUser> users = new ArrayList<>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+
+		Loop() throws IOException {
+			selector = Selector.open();
+		}
+
+		void add(SimulatedUser user) {
+			added.add(user);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					long wait = due.isEmpty() ? 100 : (due.peek().nextSend - System.nanoTime()) / 1_000_000;
+					if (wait > 0) {
+						selector.select(Math.min(wait, 100));
+					}
+					else {
+						selector.selectNow();
+					}
+					connectAdded();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						handle(key, (SimulatedUser) key.attachment());
+					}
+					sendDue();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			for (SimulatedUser user : users) {
+				close(user);
+			}
+		}
+
+		private void connectAdded() {
+			SimulatedUser user;
+			while ((user = added.poll()) != null) {
+				try {
+					user.channel = SocketChannel.open();
+					user.channel.configureBlocking(false);
+					user.channel.socket().setTcpNoDelay(true);
+					user.channel.connect(new InetSocketAddress(HOST, PORT));
+					user.key = user.channel.register(selector, SelectionKey.OP_CONNECT, user);
+					users.add(user);
+				} catch (IOException e) {
+					connectFailures.incrementAndGet();
+					close(user);
+				}
+			}
+		}
+
+		private void handle(SelectionKey key, SimulatedUser user) {
+			try {
+				if (key.isConnectable()) {
+					user.channel.finishConnect();
+					key.interestOps(SelectionKey.OP_READ);
+					write(user, user.name);
+					return;
+				}
+				if (key.isWritable()) {
+					flush(user);
+				}
+				if (key.isReadable()) {
+					read(user);
+				}
+			} catch (IOException e) {
+				if (!user.active) {
+					connectFailures.incrementAndGet();
+				}
+				else if (running) {
+					lost.incrementAndGet();
+				}
+				close(user);
+			}
+		}
+
+		private void read(SimulatedUser user) throws IOException {
+			readBuffer.clear();
+			if (user.channel.read(readBuffer) < 0) {
+				throw new IOException("Closed by the server");
+			}
+			readBuffer.flip();
+			String line;
+			while (user.channel.isOpen() && (line = user.decoder.decode(readBuffer)) != null) {
+				onLine(user, line);
+			}
+		}
+
+		private void onLine(SimulatedUser user, String line) throws IOException {
+			int at = line.lastIndexOf(MARKER);
+			if (at >= 0 && !user.replaying) {
+				received(user, line, at + MARKER.length());
+			}
+			else if (line.equals("PING")) {
+				write(user, "PING");
+			}
+			else if (line.equals("NAME_ACCEPTED")) {
+				activate(user);
+			}
+			else if (line.equals("NAME_TAKEN")) {
+				namesRefused.incrementAndGet();
+				close(user);
+			}
+			else if (line.equals("SERVER_FULL")) {
+				serverFull.incrementAndGet();
+				close(user);
+			}
+			else if (line.equals("=== Recent messages ===") || line.endsWith(" received while you were away ===")) {
+				user.replaying = true;
+			}
+			else if (line.equals("=== End of recent messages ===") || line.equals("=== End of private messages ===")) {
+				user.replaying = false;
+			}
+			else if (line.startsWith("=== ") && line.contains(" messages skipped")) {
+				skipped.addAndGet(Long.parseLong(line.substring(4, line.indexOf(' ', 4))));
+			}
+		}
+
+		// records the latency of a message sent by another user, marked as index@due
+		private void received(SimulatedUser user, String line, int start) {
+			int separator = line.indexOf('@', start);
+			if (separator < 0) {
+				return;
+			}
+			try {
+				int sender = Integer.parseInt(line, start, separator, 10);
+				long dueAt = Long.parseLong(line, separator + 1, line.length(), 10);
+				if (sender == user.index) {
+					return;
+				}
+				delivered.incrementAndGet();
+				if (recording) {
+					latency.record(System.nanoTime() - dueAt);
+				}
+			} catch (NumberFormatException e) {
+				// not one of ours
+			}
+		}
+
+		private void activate(SimulatedUser user) throws IOException {
+			write(user, "MEMBERS_VERSIONED");
+			write(user, "READY");
+			if (user.role == Role.ROOM) {
+				write(user, "!join #" + NAME_PREFIX + "-" + (user.index % ROOMS));
+			}
+			else if (user.role == Role.PRIVATE) {
+				write(user, "!private " + NAME_PREFIX + "-" + ((user.index + 1) % USERS));
+			}
+			user.active = true;
+			connected.incrementAndGet();
+			if (MESSAGE_RATE > 0) {
+				user.nextSend = System.nanoTime() + nextInterval();
+				due.add(user);
+			}
+		}
+
+		private void sendDue() {
+			long now = System.nanoTime();
+			while (!due.isEmpty() && due.peek().nextSend <= now) {
+				SimulatedUser user = due.poll();
+				if (!user.channel.isOpen()) {
+					continue;
+				}
+				try {
+					write(user, MARKER + user.index + "@" + user.nextSend);
+					sent.incrementAndGet();
+				} catch (IOException e) {
+					if (running) {
+						lost.incrementAndGet();
+					}
+					close(user);
+					continue;
+				}
+				user.nextSend += nextInterval();
+				due.add(user);
+			}
+		}
+
+		private void write(SimulatedUser user, String line) throws IOException {
+			user.outbound.add(StandardCharsets.UTF_8.encode(line + "\n"));
+			flush(user);
+		}
+
+		// writes what the socket takes now, waiting for OP_WRITE for the rest
+		private void flush(SimulatedUser user) throws IOException {
+			while (!user.outbound.isEmpty()) {
+				ByteBuffer buffer = user.outbound.peek();
+				user.channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					user.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				user.outbound.poll();
+			}
+			user.key.interestOps(SelectionKey.OP_READ);
+		}
+
+		private void close(SimulatedUser user) {
+			try {
+				if (user.channel != null) {
+					user.channel.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// time until a user's next message, exponentially distributed around 1 / MESSAGE_RATE
+	private static long nextInterval() {
+		double u = ThreadLocalRandom.current().nextDouble();
+		return (long) (-Math.log(1 - u) / MESSAGE_RATE * 1e9);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (PORT < 0) {
+			System.out.println("Give the port of the server with -Dload.port=PORT");
+			return;
+		}
+
+		Loop[] loops = new Loop[Math.max(1, LOOPS)];
+		NamedThreadFactory threads = new NamedThreadFactory("load");
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new Loop();
+			threads.newThread(loops[i]).start();
+		}
+
+		System.out.println("Connecting " + USERS + " users to " + HOST + ":" + PORT + " at " + CONNECT_RATE +
+				" per second, each sending " + MESSAGE_RATE + " messages per second");
+		long start = System.nanoTime();
+		long end = start + DURATION_SECONDS * 1_000_000_000L;
+		long warmupEnd = start + WARMUP_SECONDS * 1_000_000_000L;
+		long nextReport = start + REPORT_SECONDS * 1_000_000_000L;
+		int added = 0;
+		long[] previous = new long[2];
+		long previousTime = start;
+		while (System.nanoTime() < end) {
+			long now = System.nanoTime();
+			// connect users which are due by now at the configured rate
+			while (added < USERS && start + (long) (added / CONNECT_RATE * 1e9) <= now) {
+				loops[added % loops.length].add(new SimulatedUser(added));
+				added++;
+			}
+			if (!recording && now >= warmupEnd) {
+				recording = true;
+			}
+			if (now >= nextReport) {
+				report((now - start) / 1_000_000_000L, now - previousTime, previous);
+				previousTime = now;
+				nextReport += REPORT_SECONDS * 1_000_000_000L;
+			}
+			Thread.sleep(10);
+		}
+		running = false;
+
+		double seconds = Math.max(1, DURATION_SECONDS - WARMUP_SECONDS);
+		System.out.println("=== Summary ===");
+		System.out.println("Users connected: " + connected.get() + " of " + USERS +
+				", connections failed: " + connectFailures.get() + ", names refused: " + namesRefused.get() +
+				", turned away as the server was full: " + serverFull.get() + ", connections lost: " + lost.get());
+		System.out.println("Messages sent: " + sent.get() + ", delivered: " + delivered.get() +
+				", skipped by the server: " + skipped.get());
+		System.out.println(String.format("Deliveries per second after warmup: %.0f", latency.count() / seconds));
+		System.out.println("Delivery latency: p50 " + millis(latency.percentile(0.5)) +
+				"  p99 " + millis(latency.percentile(0.99)) + "  p999 " + millis(latency.percentile(0.999)) +
+				"  max " + millis(latency.max()));
+	}
+
+	// prints what has happened since the last report, previous holds the sent and delivered counts then
+	private static void report(long elapsedSeconds, long intervalNanos, long[] previous) {
+		long sentNow = sent.get();
+		long deliveredNow = delivered.get();
+		double seconds = intervalNanos / 1e9;
+		System.out.println(String.format("%4ds  users %d  failed %d  refused %d  lost %d  sent %.0f/s  delivered %.0f/s" +
+				"  p50 %s  p99 %s  p999 %s", elapsedSeconds, connected.get(), connectFailures.get(), namesRefused.get(),
+				lost.get(), (sentNow - previous[0]) / seconds, (deliveredNow - previous[1]) / seconds,
+				millis(latency.percentile(0.5)), millis(latency.percentile(0.99)), millis(latency.percentile(0.999))));
+		previous[0] = sentNow;
+		previous[1] = deliveredNow;
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.2fms", nanos / 1e6);
+	}
+}
@@ -0,0 +1,15 @@
+package network;
+
+// One message read back from the MessageLog.
+// room is the name of the room the message was sent to, or empty for the whole chat.
+public class LogRecord {
+	public final long time;
+	public final String room;
+	public final String text;
+
+	public LogRecord(long time, String room, String text) {
+		this.time = time;
+		this.room = room;
+		this.text = text;
+	}
+}
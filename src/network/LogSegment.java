@@ -0,0 +1,273 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// One file of the MessageLog together with its sparse index.
+// Every record in the .log file is laid out as
+//   [4 byte length][4 byte CRC32][8 byte time][2 byte room length][room][text]
+// where the length and the checksum cover everything after the checksum, so a record which was
+// only partly written when the server stopped is found and cut off when the segment is opened.
+// The .idx file holds 16 byte entries of (time, position) for one record at least every
+// INDEX_INTERVAL bytes, which lets a reader find where to start for a given time by a binary
+// search instead of reading the segment from the start. Records are only ever appended, by the
+// log's writer thread; reads use positional reads and may run at the same time.
+class LogSegment {
+	static final int RECORD_HEADER_LENGTH = 18;
+	private static final int INDEX_INTERVAL = 4096;
+
+	final long id;
+	private final Path path;
+	private final Path indexPath;
+	private final FileChannel channel;
+	private final FileChannel indexChannel;
+
+	// bytes of complete records, written by the writer thread only
+	private volatile long size = 0;
+
+	// the index, also kept in memory, guarded by this segment's monitor
+	private long[] indexTimes = new long[64];
+	private long[] indexPositions = new long[64];
+	private int indexCount = 0;
+
+	private LogSegment(Path dir, long id) throws IOException {
+		this.id = id;
+		path = dir.resolve(String.format("%020d.log", id));
+		indexPath = dir.resolve(String.format("%020d.idx", id));
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	static LogSegment create(Path dir, long id) throws IOException {
+		return new LogSegment(dir, id);
+	}
+
+	// opens an existing segment, checking its records from the last index entry onwards
+	// if it is the segment the server was writing to when it stopped
+	static LogSegment open(Path dir, long id, boolean last) throws IOException {
+		LogSegment segment = new LogSegment(dir, id);
+		segment.loadIndex();
+		if (last || (segment.indexCount == 0 && segment.channel.size() > 0)) {
+			segment.recover();
+		}
+		else {
+			segment.size = segment.channel.size();
+		}
+		return segment;
+	}
+
+	private synchronized void loadIndex() throws IOException {
+		long length = channel.size();
+		ByteBuffer entries = ByteBuffer.allocate((int) (indexChannel.size() / 16 * 16));
+		while (entries.hasRemaining()) {
+			if (indexChannel.read(entries, entries.position()) <= 0) {
+				break;
+			}
+		}
+		entries.flip();
+		while (entries.remaining() >= 16) {
+			long time = entries.getLong();
+			long position = entries.getLong();
+			if (position >= length) {
+				break;
+			}
+			addIndexEntry(time, position);
+		}
+	}
+
+	// finds the end of the last complete record, cuts off anything after it and
+	// indexes the records after the last index entry
+	private void recover() throws IOException {
+		long start = 0;
+		synchronized (this) {
+			if (indexCount > 0) {
+				// the last entry is added again while scanning
+				start = indexPositions[--indexCount];
+			}
+		}
+
+		long end = scan(start, Long.MIN_VALUE, null, true);
+		channel.truncate(end);
+		synchronized (this) {
+			indexChannel.truncate(0);
+			ByteBuffer entries = ByteBuffer.allocate(indexCount * 16);
+			for (int i = 0; i < indexCount; i++) {
+				entries.putLong(indexTimes[i]).putLong(indexPositions[i]);
+			}
+			entries.flip();
+			while (entries.hasRemaining()) {
+				indexChannel.write(entries, entries.position());
+			}
+		}
+		size = end;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	// time of the first record, or Long.MAX_VALUE if the segment is empty
+	public synchronized long firstTime() {
+		return indexCount > 0 ? indexTimes[0] : Long.MAX_VALUE;
+	}
+
+	// returns whether the record about to be written at position should be indexed
+	public synchronized boolean needsIndex(long position) {
+		return indexCount == 0 || position - indexPositions[indexCount - 1] >= INDEX_INTERVAL;
+	}
+
+	// records where the record with the given time starts, written before the record itself
+	// so an entry past the end of the segment is dropped when the segment is opened
+	public void index(long time, long position) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(16).putLong(time).putLong(position).flip();
+		long offset;
+		synchronized (this) {
+			offset = indexCount * 16L;
+			addIndexEntry(time, position);
+		}
+		while (entry.hasRemaining()) {
+			indexChannel.write(entry, offset + entry.position());
+		}
+	}
+
+	private void addIndexEntry(long time, long position) {
+		if (indexCount == indexTimes.length) {
+			indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+			indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+		}
+		indexTimes[indexCount] = time;
+		indexPositions[indexCount] = position;
+		indexCount++;
+	}
+
+	// appends encoded records to the end of the segment
+	public void write(ByteBuffer records) throws IOException {
+		long position = size;
+		while (records.hasRemaining()) {
+			position += channel.write(records, position);
+		}
+		size = position;
+	}
+
+	public void force() throws IOException {
+		channel.force(false);
+		indexChannel.force(false);
+	}
+
+	// passes every record from the given time onwards to consumer
+	public void read(long fromTime, Consumer<LogRecord> consumer) throws IOException {
+		scan(seek(fromTime), fromTime, consumer, false);
+	}
+
+	// position of the last indexed record written before fromTime, where reading has to start
+	private synchronized long seek(long fromTime) {
+		int low = 0;
+		int high = indexCount - 1;
+		long position = 0;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (indexTimes[middle] < fromTime) {
+				position = indexPositions[middle];
+				low = middle + 1;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		return position;
+	}
+
+	// reads records from position until the end of the segment or the first damaged record,
+	// returns the position after the last good record
+	private long scan(long position, long fromTime, Consumer<LogRecord> consumer, boolean rebuildIndex)
+			throws IOException {
+		long end = rebuildIndex ? channel.size() : size;
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		buffer.flip();
+		CRC32 crc = new CRC32();
+
+		while (position < end) {
+			if (buffer.remaining() < RECORD_HEADER_LENGTH) {
+				fill(buffer, position + buffer.remaining(), end);
+				if (buffer.remaining() < RECORD_HEADER_LENGTH) {
+					break;
+				}
+			}
+			int length = buffer.getInt(buffer.position());
+			if (length < 10 || position + 8 + length > end) {
+				break;
+			}
+			if (buffer.remaining() < 8 + length) {
+				if (buffer.capacity() < 8 + length) {
+					ByteBuffer larger = ByteBuffer.allocate(8 + length);
+					larger.put(buffer).flip();
+					buffer = larger;
+				}
+				fill(buffer, position + buffer.remaining(), end);
+				if (buffer.remaining() < 8 + length) {
+					break;
+				}
+			}
+
+			int start = buffer.position();
+			int checksum = buffer.getInt(start + 4);
+			crc.reset();
+			crc.update(buffer.duplicate().position(start + 8).limit(start + 8 + length));
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			long time = buffer.getLong(start + 8);
+			int roomLength = buffer.getShort(start + 16) & 0xffff;
+			if (rebuildIndex && needsIndex(position)) {
+				index(time, position);
+			}
+			if (consumer != null && time >= fromTime) {
+				byte[] bytes = new byte[length - 10];
+				buffer.position(start + RECORD_HEADER_LENGTH).get(bytes);
+				String room = new String(bytes, 0, roomLength, StandardCharsets.UTF_8);
+				String text = new String(bytes, roomLength, bytes.length - roomLength, StandardCharsets.UTF_8);
+				consumer.accept(new LogRecord(time, room, text));
+			}
+			buffer.position(start + 8 + length);
+			position += 8 + length;
+		}
+		return position;
+	}
+
+	// keeps the unread bytes of buffer and reads as many more after them from the file as fit
+	private void fill(ByteBuffer buffer, long from, long end) throws IOException {
+		buffer.compact();
+		int limit = (int) Math.min(buffer.capacity(), buffer.position() + end - from);
+		buffer.limit(limit);
+		int read = 0;
+		while (buffer.hasRemaining()) {
+			int count = channel.read(buffer, from + read);
+			if (count <= 0) {
+				break;
+			}
+			read += count;
+		}
+		buffer.flip();
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		indexChannel.close();
+	}
+
+	public void delete() throws IOException {
+		close();
+		Files.deleteIfExists(path);
+		Files.deleteIfExists(indexPath);
+	}
+}
@@ -0,0 +1,73 @@
+package network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// ClusterBus between buses in the same process, for testing a Cluster without sockets.
+// Buses created with the same Hub form one cluster. Every bus delivers to its listener on a
+// thread of its own, so messages arrive asynchronously and in order like over a connection.
+public class LoopbackBus implements ClusterBus {
+
+	// the buses of one cluster
+	public static class Hub {
+		private final ConcurrentHashMap<String, LoopbackBus> buses = new ConcurrentHashMap<>();
+	}
+
+	private final Hub hub;
+	private final String node;
+	private final ExecutorService inbox;
+	private volatile Listener listener;
+
+	public LoopbackBus(Hub hub, String node) {
+		this.hub = hub;
+		this.node = node;
+		inbox = Executors.newSingleThreadExecutor(new NamedThreadFactory("loopback-" + node));
+	}
+
+	@Override
+	public String node() {
+		return node;
+	}
+
+	@Override
+	public void start(Listener listener) {
+		this.listener = listener;
+		for (LoopbackBus other : hub.buses.values()) {
+			other.inbox.execute(() -> other.listener.onNodeUp(node));
+			inbox.execute(() -> listener.onNodeUp(other.node));
+		}
+		hub.buses.put(node, this);
+	}
+
+	@Override
+	public void publish(ClusterMessage message) {
+		for (LoopbackBus other : hub.buses.values()) {
+			if (other != this) {
+				other.deliver(node, message);
+			}
+		}
+	}
+
+	@Override
+	public void send(String to, ClusterMessage message) {
+		LoopbackBus other = hub.buses.get(to);
+		if (other != null && other != this) {
+			other.deliver(node, message);
+		}
+	}
+
+	private void deliver(String from, ClusterMessage message) {
+		inbox.execute(() -> listener.onMessage(from, message));
+	}
+
+	@Override
+	public void close() {
+		if (hub.buses.remove(node, this)) {
+			for (LoopbackBus other : hub.buses.values()) {
+				other.inbox.execute(() -> other.listener.onNodeDown(node));
+			}
+		}
+		inbox.shutdown();
+	}
+}
@@ -0,0 +1,215 @@
+package network;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Private messages kept for users who are not in the chat when they are sent, for example while
+// their phone reconnects. They are delivered together, in the order they were sent, as soon as a
+// user with that name next sends READY.
+// Whether a message goes straight to the recipient or into their mailbox is decided inside
+// ConcurrentHashMap.compute for the recipient's name, which is also where the mailbox is emptied
+// when they return, so a message sent while they are coming back is either in the batch they are
+// sent or arrives after it, never lost in between. Once a user has a mailbox, new messages are
+// added to it until it is delivered so they cannot overtake the older ones.
+// Each mailbox holds at most chat.mailboxSize messages and at most chat.mailboxes users can have
+// one, beyond that new messages are refused and the sender is told.
+// In a Cluster a message for a user on another node is passed on to that node, which delivers
+// it or keeps it in its own mailboxes. Messages kept here for a user who then joins on another
+// node are passed on to that node. Passing a message on happens after compute has returned, so
+// no network write is made while the name is locked.
+// With chat.logDir set the mailboxes survive a restart: every message kept and every mailbox
+// emptied is appended to a MessageLog of their own in its mailboxes directory, from the same
+// compute, so the log sees them in the order they happened. On startup the log is read back and
+// only what is still undelivered is written into a new log, which then replaces the old one.
+// Like the message log it is written behind the chat, so a message kept just before a crash may
+// be lost, and one which is still undelivered once the log passes chat.logRetentionBytes is too.
+public class Mailboxes {
+	public enum Delivery {
+		SENT,
+		KEPT,
+		REFUSED
+	}
+
+	// the room of a record in the log is one of these followed by the user's name
+	private static final String KEPT = "+";
+	private static final String DELIVERED = "-";
+
+	private final ConcurrentHashMap<String, ArrayDeque<String>> boxes = new ConcurrentHashMap<>();
+
+	// null unless chat.logDir is set
+	private volatile MessageLog log = null;
+
+	// sends a private message to the named user if they are in the chat, otherwise keeps it
+	public Delivery send(String name, String message) {
+		return send(name, message, ServerContext.cluster);
+	}
+
+	// a private message passed on by another node, never passed on again so that two nodes
+	// which disagree for a moment about where the user is cannot pass it back and forth
+	public Delivery receive(String name, String message) {
+		return send(name, message, null);
+	}
+
+	private Delivery send(String name, String message, Cluster cluster) {
+		Delivery[] result = new Delivery[1];
+		String[] node = new String[1];
+		boxes.compute(name, (key, box) -> {
+			Session recipient = ServerContext.users.get(key);
+			if (box == null && recipient != null && recipient.isActive() && !recipient.connection.isClosed()) {
+				recipient.send(message);
+				result[0] = Delivery.SENT;
+				return null;
+			}
+			node[0] = box == null && recipient == null && cluster != null ? cluster.nodeOf(key) : null;
+			if (node[0] != null) {
+				result[0] = Delivery.SENT;
+				return null;
+			}
+
+			if (box == null) {
+				if (boxes.size() >= ServerConfig.MAILBOXES) {
+					result[0] = Delivery.REFUSED;
+					return null;
+				}
+				box = new ArrayDeque<>();
+			}
+			if (box.size() >= ServerConfig.MAILBOX_SIZE) {
+				result[0] = Delivery.REFUSED;
+				return box;
+			}
+			box.add(message);
+			record(KEPT, key, message);
+			result[0] = Delivery.KEPT;
+			return box;
+		});
+		if (node[0] != null) {
+			cluster.privateMessage(node[0], name, message);
+		}
+		return result[0];
+	}
+
+	// removes and returns everything kept for the named user
+	public List<String> take(String name) {
+		List<String> taken = new ArrayList<>();
+		boxes.computeIfPresent(name, (key, box) -> {
+			taken.addAll(box);
+			record(DELIVERED, key, "");
+			return null;
+		});
+		return taken.isEmpty() ? Collections.emptyList() : taken;
+	}
+
+	// sends a user who has just joined everything kept for them
+	public void deliver(Session session) {
+		boxes.compute(session.userName, (key, box) -> {
+			if (box != null) {
+				session.send("=== " + box.size() + " private message" + (box.size() == 1 ? "" : "s") +
+						" received while you were away ===");
+				for (String message : box) {
+					session.send(message);
+				}
+				session.send("=== End of private messages ===");
+				record(DELIVERED, key, "");
+			}
+			return null;
+		});
+	}
+
+	// reads back the mailboxes kept in dir before the last restart and starts logging to it
+	public void open(Path dir) throws IOException {
+		Path fresh = dir.resolveSibling(dir.getFileName() + ".new");
+		Path old = dir.resolveSibling(dir.getFileName() + ".old");
+		recover(dir, fresh, old);
+
+		if (Files.exists(dir)) {
+			MessageLog previous = MessageLog.open(dir);
+			previous.read(0, this::replay);
+			previous.close();
+		}
+
+		// the old log is only moved aside once the new one is complete
+		MessageLog compacted = MessageLog.open(fresh);
+		long now = System.currentTimeMillis();
+		boxes.forEach((name, box) -> {
+			for (String message : box) {
+				compacted.appendWaiting(now, KEPT + name, message);
+			}
+		});
+		compacted.close();
+		if (Files.exists(dir)) {
+			Files.move(dir, old);
+		}
+		Files.move(fresh, dir);
+		delete(old);
+
+		log = MessageLog.open(dir);
+	}
+
+	public void close() {
+		MessageLog current = log;
+		if (current != null) {
+			log = null;
+			current.close();
+		}
+	}
+
+	// returns how many messages are kept in all the mailboxes together
+	public int size() {
+		int count = 0;
+		for (ArrayDeque<String> box : boxes.values()) {
+			count += box.size();
+		}
+		return count;
+	}
+
+	// finishes or undoes a replacement of the log which a crash interrupted
+	private static void recover(Path dir, Path fresh, Path old) throws IOException {
+		if (Files.exists(fresh)) {
+			if (Files.exists(dir)) {
+				// the new log may not be complete, the old one still is
+				delete(fresh);
+			}
+			else {
+				Files.move(fresh, dir);
+			}
+		}
+		delete(old);
+	}
+
+	private static void delete(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private void replay(LogRecord record) {
+		String name = record.room.substring(1);
+		if (record.room.startsWith(KEPT)) {
+			boxes.computeIfAbsent(name, key -> new ArrayDeque<>()).add(record.text);
+		}
+		else {
+			boxes.remove(name);
+		}
+	}
+
+	// called inside compute for the user's name, so records of one user are logged in order
+	private void record(String event, String name, String message) {
+		MessageLog current = log;
+		if (current != null) {
+			current.append(System.currentTimeMillis(), event + name, message);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package network;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Versioned list of the users in the chat, pushed to the coordinator and to any client which
+// asks for it with MEMBERS_SUBSCRIBE. A new subscriber is sent one snapshot:
+//   NAMES_BEGIN <seq>, one name per message, NAMES_END
+// and after that only the changes, each carrying the next sequence number:
+//   MEMBER_JOIN <seq> <name>
+//   MEMBER_LEAVE <seq> <name>
+// A client which sees a sequence number it did not expect (for example because messages were
+// skipped while it read too slowly) sends MEMBERS_RESYNC and is sent a new snapshot.
+// Only clients which understand this get it: framed clients, and text protocol clients which have
+// sent MEMBERS_VERSIONED. Older clients get what they always have, the whole list without a
+// sequence number (NAMES_BEGIN, the names, NAMES_END) again after every change.
+// Changes are numbered and queued for every subscriber under one lock, so each subscriber
+// receives them in sequence order. The lock is only held while queueing, never while writing.
+// With the text protocol names cannot be told apart from chat text, so a snapshot is queued as
+// one message there and no chat line can end up between its names.
+class MembershipFeed {
+	private final ReentrantLock lock = new ReentrantLock();
+	private long sequence = 0;
+	private final Set<String> members = new HashSet<>();
+	private final Set<Session> subscribers = new HashSet<>();
+	// subscribers sent the whole list after every change instead
+	private final Set<Session> legacySubscribers = new HashSet<>();
+
+	public void joined(String name) {
+		lock.lock();
+		try {
+			members.add(name);
+			publish("MEMBER_JOIN " + ++sequence + " " + name);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void left(String name) {
+		lock.lock();
+		try {
+			members.remove(name);
+			publish("MEMBER_LEAVE " + ++sequence + " " + name);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// starts sending changes to the session, beginning with a snapshot
+	public void subscribe(Session session) {
+		lock.lock();
+		try {
+			boolean added = session.followsVersionedMembers() ? subscribers.add(session) : legacySubscribers.add(session);
+			if (added) {
+				sendSnapshot(session);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// sends a subscriber which has missed a change a new snapshot
+	public void resync(Session session) {
+		lock.lock();
+		try {
+			if (subscribers.contains(session)) {
+				sendSnapshot(session);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void unsubscribe(Session session) {
+		lock.lock();
+		try {
+			subscribers.remove(session);
+			legacySubscribers.remove(session);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void sendSnapshot(Session session) {
+		if (session.connection.isFramed()) {
+			session.sendControl("NAMES_BEGIN " + sequence);
+			for (String name : members) {
+				session.sendControl(name);
+			}
+			session.sendControl("NAMES_END");
+			return;
+		}
+
+		StringBuilder snapshot = new StringBuilder("NAMES_BEGIN");
+		if (subscribers.contains(session)) {
+			snapshot.append(' ').append(sequence);
+		}
+		for (String name : members) {
+			snapshot.append('\n').append(name);
+		}
+		session.sendControl(snapshot.append("\nNAMES_END").toString());
+	}
+
+	private void publish(String change) {
+		for (Session subscriber : subscribers) {
+			subscriber.sendControl(change);
+		}
+		for (Session subscriber : legacySubscribers) {
+			sendSnapshot(subscriber);
+		}
+	}
+}
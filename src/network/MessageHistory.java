@@ -0,0 +1,68 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// The most recent messages of the chat or of one room, kept in a fixed size ring.
+// Adding a message claims the next sequence number with one atomic increment and stores it in
+// that number's slot, overwriting the oldest message, so the broadcast path never waits on a lock.
+// Messages are kept as the SharedMessage which was broadcast, so replaying history to a user only
+// queues views of bytes which have already been encoded (off-heap in nio mode) instead of
+// building new strings for every user. Each history also has a SearchIndex over the same
+// messages, which is updated on the search thread.
+class MessageHistory {
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong();
+	public final SearchIndex index;
+
+	private static class Entry {
+		final long seq;
+		final SharedMessage message;
+
+		Entry(long seq, SharedMessage message) {
+			this.seq = seq;
+			this.message = message;
+		}
+	}
+
+	// capacity is rounded up to a power of two
+	public MessageHistory(int capacity) {
+		slots = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1);
+		mask = slots.length() - 1;
+		index = new SearchIndex(slots.length(), ServerContext.searcher);
+	}
+
+	public MessageHistory() {
+		this(ServerConfig.HISTORY_SIZE);
+	}
+
+	public void add(SharedMessage message) {
+		long seq = next.getAndIncrement();
+		slots.set((int) (seq & mask), new Entry(seq, message));
+		index.add(message.text);
+	}
+
+	// queues up to count of the most recent messages for the session, oldest first,
+	// and returns how many were sent
+	public int replay(Session session, int count) {
+		long end = next.get();
+		long start = Math.max(0, end - Math.min(count, slots.length()));
+
+		int sent = 0;
+		for (long seq = start; seq < end; seq++) {
+			Entry entry = slots.get((int) (seq & mask));
+			// skip a slot which has already been overwritten or is still being written
+			if (entry != null && entry.seq == seq) {
+				session.send(entry.message);
+				sent++;
+			}
+		}
+		return sent;
+	}
+
+	// number of messages held, at most the capacity
+	public int size() {
+		return (int) Math.min(next.get(), slots.length());
+	}
+}
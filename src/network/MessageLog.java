@@ -0,0 +1,271 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only log of the messages sent in the chat and its rooms, so that the history survives
+// a restart. The log is a directory of LogSegment files, a new one is started once the current
+// one reaches chat.logSegmentBytes and the oldest are deleted once all of them together pass
+// chat.logRetentionBytes.
+//
+// append() only puts the message on a bounded queue and never waits, so logging adds nothing
+// to the time a broadcast takes. A single writer thread takes everything waiting on the queue
+// at once, encodes it into one buffer and writes it with one call, then syncs the whole batch
+// to disk according to chat.logFsync (group commit). If the disk cannot keep up and the queue
+// fills, messages are left out of the log and the writer reports how many.
+// Files in the directory which are not named like a segment are left alone.
+public class MessageLog {
+	private static final int QUEUE_LENGTH = 64 * 1024;
+	private static final int BATCH_BYTES = 256 * 1024;
+
+	// put on the queue by close() to stop the writer
+	private static final LogRecord END = new LogRecord(0, "", "");
+
+	private final Path dir;
+	private final long segmentBytes;
+	private final long retentionBytes;
+	private final List<LogSegment> segments = new CopyOnWriteArrayList<>();
+	private final BlockingQueue<LogRecord> pending = new ArrayBlockingQueue<>(QUEUE_LENGTH);
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread writer;
+
+	// only touched by the writer thread
+	private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+	private final CRC32 crc = new CRC32();
+	private long lastTime = 0;
+	private long lastForce = System.nanoTime();
+	private boolean dirty = false;
+
+	private MessageLog(Path dir, long segmentBytes, long retentionBytes) {
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.retentionBytes = retentionBytes;
+		writer = new Thread(this::writeLoop, "messageLog");
+	}
+
+	// opens the log in dir, creating it if needed, and starts the writer
+	public static MessageLog open(Path dir) throws IOException {
+		return open(dir, ServerConfig.LOG_SEGMENT_BYTES, ServerConfig.LOG_RETENTION_BYTES);
+	}
+
+	public static MessageLog open(Path dir, long segmentBytes, long retentionBytes) throws IOException {
+		Files.createDirectories(dir);
+		MessageLog log = new MessageLog(dir, segmentBytes, retentionBytes);
+
+		List<Long> ids = new ArrayList<>();
+		try (Stream<Path> files = Files.list(dir)) {
+			files.map(file -> file.getFileName().toString())
+					.filter(name -> name.endsWith(".log"))
+					.forEach(name -> {
+						try {
+							ids.add(Long.parseLong(name.substring(0, name.length() - 4)));
+						} catch (NumberFormatException e) {
+							ServerContext.events.warn(EventLog.Event.MESSAGE_LOG, null,
+									"ignoring " + name + " in " + dir + ", it is not a segment of the log", null);
+						}
+					});
+		}
+		ids.sort(null);
+		for (int i = 0; i < ids.size(); i++) {
+			log.segments.add(LogSegment.open(dir, ids.get(i), i == ids.size() - 1));
+		}
+		if (log.segments.isEmpty()) {
+			log.segments.add(LogSegment.create(dir, 0));
+		}
+
+		log.writer.start();
+		return log;
+	}
+
+	// queues a message to be written, room is empty for the whole chat
+	public void append(long time, String room, String text) {
+		if (!pending.offer(new LogRecord(time, room, text))) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	// queues a message to be written, waiting for room on the queue rather than leaving it out,
+	// for writing out a snapshot which has to be complete
+	public void appendWaiting(long time, String room, String text) {
+		try {
+			pending.put(new LogRecord(time, room, text));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			dropped.incrementAndGet();
+		}
+	}
+
+	// passes every message written from the given time onwards to consumer, oldest first
+	public void read(long fromTime, Consumer<LogRecord> consumer) throws IOException {
+		List<LogSegment> snapshot = new ArrayList<>(segments);
+
+		// start in the last segment which begins before fromTime
+		int first = 0;
+		for (int i = 0; i < snapshot.size(); i++) {
+			if (snapshot.get(i).firstTime() < fromTime) {
+				first = i;
+			}
+		}
+		for (int i = first; i < snapshot.size(); i++) {
+			snapshot.get(i).read(fromTime, consumer);
+		}
+	}
+
+	// writes whatever is still queued and stops the writer
+	public void close() {
+		try {
+			pending.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (LogSegment segment : segments) {
+			try {
+				segment.close();
+			} catch (IOException e) {
+				ServerContext.events.warn(EventLog.Event.MESSAGE_LOG, null, "could not close a segment", e);
+			}
+		}
+	}
+
+	private void writeLoop() {
+		List<LogRecord> records = new ArrayList<>();
+		while (true) {
+			try {
+				LogRecord first = dirty
+						? pending.poll(ServerConfig.LOG_FSYNC_MILLIS, TimeUnit.MILLISECONDS)
+						: pending.take();
+				if (first != null) {
+					records.add(first);
+					pending.drainTo(records);
+				}
+
+				boolean end = records.remove(END);
+				writeBatch(records);
+				records.clear();
+				if (end) {
+					sync(true);
+					return;
+				}
+				sync(false);
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				// the messages of this batch are lost, carry on with the next
+				ServerContext.events.error(EventLog.Event.MESSAGE_LOG, null, records.size() + " messages were not logged", e);
+				records.clear();
+				batch.clear();
+			}
+
+			long missed = dropped.getAndSet(0);
+			if (missed > 0) {
+				ServerContext.events.warn(EventLog.Event.MESSAGE_LOG, null,
+						"falling behind, " + missed + " messages were not logged", null);
+			}
+		}
+	}
+
+	private void writeBatch(List<LogRecord> records) throws IOException {
+		for (LogRecord record : records) {
+			byte[] room = record.room.getBytes(StandardCharsets.UTF_8);
+			byte[] text = record.text.getBytes(StandardCharsets.UTF_8);
+			int length = LogSegment.RECORD_HEADER_LENGTH + room.length + text.length;
+
+			LogSegment segment = current();
+			if (segment.size() + batch.position() + length > segmentBytes &&
+					segment.size() + batch.position() > 0) {
+				flushBatch();
+				roll();
+				segment = current();
+			}
+			if (batch.remaining() < length) {
+				flushBatch();
+			}
+
+			// times only move forwards within the log so the index stays sorted
+			long time = Math.max(record.time, lastTime);
+			lastTime = time;
+			if (segment.needsIndex(segment.size() + batch.position())) {
+				segment.index(time, segment.size() + batch.position());
+			}
+
+			ByteBuffer target = batch.remaining() >= length ? batch : ByteBuffer.allocate(length);
+			int start = target.position();
+			target.putInt(length - 8).putInt(0).putLong(time).putShort((short) room.length).put(room).put(text);
+			crc.reset();
+			crc.update(target.duplicate().position(start + 8).limit(target.position()));
+			target.putInt(start + 4, (int) crc.getValue());
+
+			if (target != batch) {
+				// larger than a whole batch, written on its own
+				segment.write(target.flip());
+				dirty = true;
+			}
+		}
+		flushBatch();
+	}
+
+	private void flushBatch() throws IOException {
+		if (batch.position() == 0) {
+			return;
+		}
+		batch.flip();
+		current().write(batch);
+		batch.clear();
+		dirty = true;
+	}
+
+	// syncs written messages to disk if the policy asks for it, or always if closing
+	private void sync(boolean closing) throws IOException {
+		if (ServerConfig.LOG_FSYNC == FsyncPolicy.NEVER && !closing) {
+			dirty = false;
+		}
+		if (!dirty) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (closing || ServerConfig.LOG_FSYNC == FsyncPolicy.ALWAYS ||
+				now - lastForce >= TimeUnit.MILLISECONDS.toNanos(ServerConfig.LOG_FSYNC_MILLIS)) {
+			current().force();
+			lastForce = now;
+			dirty = false;
+		}
+	}
+
+	private LogSegment current() {
+		return segments.get(segments.size() - 1);
+	}
+
+	// starts a new segment and deletes the oldest ones beyond the retention limit
+	private void roll() throws IOException {
+		LogSegment last = current();
+		if (ServerConfig.LOG_FSYNC != FsyncPolicy.NEVER) {
+			last.force();
+		}
+		segments.add(LogSegment.create(dir, last.id + 1));
+		dirty = false;
+
+		long total = 0;
+		for (LogSegment segment : segments) {
+			total += segment.size();
+		}
+		while (total > retentionBytes && segments.size() > 1) {
+			LogSegment oldest = segments.remove(0);
+			total -= oldest.size();
+			oldest.delete();
+		}
+	}
+}
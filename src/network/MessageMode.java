@@ -4,7 +4,9 @@ package network;
 // BROADCAST will send broadcast messages to all connected users.
 // PRIVATE will send a private message to the user which is currently set to privateRecipient
 // in the server worker class.
+// CHANNEL will send messages to the members of the room which is currently set to channel.
 public enum MessageMode {
 	BROADCAST,
-	PRIVATE
+	PRIVATE,
+	CHANNEL
 }
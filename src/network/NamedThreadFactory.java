@@ -1,11 +1,12 @@
 package network;
 
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // thread factory which allows for custom naming of threads for readability
 class NamedThreadFactory implements ThreadFactory {
 	private String threadName;
-	private int threadCount = 0;
+	private AtomicInteger threadCount = new AtomicInteger();
 	
 	public NamedThreadFactory(String name) {
 		threadName = name;
@@ -13,8 +14,6 @@ class NamedThreadFactory implements ThreadFactory {
 
 	@Override
 	public Thread newThread(Runnable r) {
-		Thread t = new Thread(r, threadName + "-" + threadCount);
-		threadCount++;
-		return t;
+		return new Thread(r, threadName + "-" + threadCount.getAndIncrement());
 	}
 }
\ No newline at end of file
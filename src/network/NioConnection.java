@@ -0,0 +1,291 @@
+package network;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Connection over a non-blocking SocketChannel. All reads and writes happen on the owning
+// EventLoop's thread. Messages sent from other threads go onto a bounded OutboundQueue and the
+// loop is asked to flush them, if the socket cannot take everything at once the rest is written
+// when it becomes writable. Input is split into lines until the client asks for frames, from
+// then on a FrameDecoder takes over.
+class NioConnection implements Connection {
+	private static final int WRITE_BATCH = 16;
+
+	private final EventLoop loop;
+	private final SocketChannel channel;
+	private Session session;
+	SelectionKey key;
+
+	private final LineDecoder lineDecoder = new LineDecoder(ServerConfig.MAX_LINE);
+	private boolean firstLine = true;
+
+	// set once the client has switched to frames
+	private FrameDecoder frameDecoder;
+	private volatile boolean framed = false;
+
+	private final OutboundQueue outbound = new OutboundQueue();
+	// messages taken off the queue to be written with one gathering write, batch[batchStart]
+	// may have been partly written already, allocated on the first flush so idle users never need it
+	private ByteBuffer[] batch;
+	private int batchStart = 0;
+	private int batchEnd = 0;
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final AdmissionController.Ticket ticket;
+
+	public NioConnection(EventLoop loop, SocketChannel channel, AdmissionController.Ticket ticket) {
+		this.loop = loop;
+		this.channel = channel;
+		this.ticket = ticket;
+		session = new Session(this);
+	}
+
+	@Override
+	public void send(String text) {
+		enqueue(encode(Frame.TEXT, text));
+	}
+
+	@Override
+	public void sendControl(String message) {
+		enqueue(encode(Frame.CONTROL, message));
+	}
+
+	@Override
+	public void send(SharedMessage message) {
+		enqueue((framed ? message.frame() : message.line()).duplicate());
+	}
+
+	@Override
+	public void send(long seq, String text) {
+		enqueue(FrameCodec.encode(Frame.SEQ, Long.toString(seq)));
+		enqueue(FrameCodec.encode(Frame.TEXT, text));
+	}
+
+	@Override
+	public void send(long seq, SharedMessage message) {
+		enqueue(FrameCodec.encode(Frame.SEQ, Long.toString(seq)));
+		enqueue(message.frame().duplicate());
+	}
+
+	Session session() {
+		return session;
+	}
+
+	@Override
+	public void setSession(Session session) {
+		this.session = session;
+	}
+
+	@Override
+	public void joined() {
+		ticket.joined();
+	}
+
+	private ByteBuffer encode(byte opcode, String message) {
+		return framed ? FrameCodec.encode(opcode, message) : StandardCharsets.UTF_8.encode(message + "\n");
+	}
+
+	private void enqueue(ByteBuffer message) {
+		if (outbound.offer(message)) {
+			scheduleFlush();
+		}
+		else {
+			// too far behind to catch up
+			loop.execute(this::closeNow);
+		}
+	}
+
+	@Override
+	public void close() {
+		outbound.close();
+		scheduleFlush();
+	}
+
+	@Override
+	public void abort() {
+		loop.execute(this::closeNow);
+	}
+
+	@Override
+	public boolean isClosed() {
+		return !channel.isOpen();
+	}
+
+	@Override
+	public int queued() {
+		return outbound.size();
+	}
+
+	@Override
+	public boolean isFramed() {
+		return framed;
+	}
+
+	@Override
+	public Socket socket() {
+		return channel.socket();
+	}
+
+	// called by the loop when the channel is ready for reading or writing
+	void handle(SelectionKey key) {
+		if (!key.isValid()) {
+			return;
+		}
+		if (key.isReadable()) {
+			read();
+		}
+		if (key.isValid() && key.isWritable()) {
+			flush();
+		}
+	}
+
+	private void scheduleFlush() {
+		if (flushScheduled.compareAndSet(false, true)) {
+			loop.execute(this::flush);
+		}
+	}
+
+	// reads whatever is available and passes every complete line or frame to the session
+	private void read() {
+		ByteBuffer buffer = loop.readBuffer;
+		buffer.clear();
+
+		int count;
+		try {
+			count = channel.read(buffer);
+		} catch (IOException e) {
+			ServerContext.events.info(EventLog.Event.CONNECTION_LOST, session, e.toString());
+			count = -1;
+		}
+		if (count < 0) {
+			closeNow();
+			return;
+		}
+
+		buffer.flip();
+		while (buffer.hasRemaining() && channel.isOpen()) {
+			if (frameDecoder != null) {
+				readFrame(buffer);
+				continue;
+			}
+
+			String line;
+			try {
+				line = lineDecoder.decode(buffer);
+			} catch (IOException e) {
+				// line too long
+				ServerContext.events.info(EventLog.Event.CONNECTION_LOST, session, e.toString());
+				closeNow();
+				return;
+			}
+			if (line == null) {
+				continue;
+			}
+
+			ServerContext.metrics.messagesRead.increment();
+			if (firstLine && line.equals(FrameCodec.HELLO)) {
+				useFrames();
+			}
+			else {
+				session.onLine(line);
+			}
+			firstLine = false;
+		}
+	}
+
+	// answers the client's request for frames, anything after HELLO_OK is framed
+	private void useFrames() {
+		enqueue(StandardCharsets.UTF_8.encode(FrameCodec.HELLO_OK + "\n"));
+		frameDecoder = new FrameDecoder(ServerConfig.MAX_FRAME);
+		outbound.useFrames();
+		framed = true;
+	}
+
+	private void readFrame(ByteBuffer buffer) {
+		Frame frame;
+		try {
+			frame = frameDecoder.decode(buffer);
+		} catch (IOException e) {
+			ServerContext.events.info(EventLog.Event.CONNECTION_LOST, session, e.toString());
+			closeNow();
+			return;
+		}
+
+		if (frame == null) {
+			return;
+		}
+		ServerContext.metrics.messagesRead.increment();
+		if (frame.opcode == Frame.CONTROL) {
+			session.onControl(frame.payload);
+		}
+		else if (frame.opcode == Frame.TEXT) {
+			session.onText(frame.payload);
+		}
+	}
+
+	// writes queued messages until the queue is empty or the socket cannot take any more
+	// several messages are handed to the channel at once so a burst costs one system call
+	private void flush() {
+		flushScheduled.set(false);
+		if (key == null || !channel.isOpen()) {
+			return;
+		}
+		if (batch == null) {
+			batch = new ByteBuffer[WRITE_BATCH];
+		}
+
+		try {
+			while (true) {
+				ByteBuffer message;
+				while (batchEnd < batch.length && (message = outbound.poll()) != null) {
+					batch[batchEnd++] = message;
+				}
+				if (batchStart == batchEnd) {
+					break;
+				}
+
+				channel.write(batch, batchStart, batchEnd - batchStart);
+				while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+					batch[batchStart++] = null;
+				}
+				if (batchStart < batchEnd) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+				batchStart = 0;
+				batchEnd = 0;
+			}
+		} catch (IOException e) {
+			closeNow();
+			return;
+		}
+
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		if (outbound.isClosed() && outbound.isEmpty()) {
+			closeNow();
+		}
+	}
+
+	// closes the channel straight away, without writing anything still queued
+	void closeNow() {
+		outbound.close();
+		if (channel.isOpen()) {
+			ServerContext.metrics.connectionsClosed.increment();
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				ServerContext.events.warn(EventLog.Event.CONNECTION_CLOSE, session, null, e);
+			}
+		}
+		outbound.clear();
+		ticket.release();
+		session.onDisconnect(this);
+	}
+}
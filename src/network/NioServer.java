@@ -0,0 +1,97 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadFactory;
+
+// Non-blocking server core used in nio mode. The calling thread accepts connections on a
+// ServerSocketChannel and hands each one to a fixed set of EventLoops in round-robin order.
+// Every loop owns a Selector and serves all of its users, so the number of threads stays the
+// same however many users are connected, and an idle user only costs its channel and session.
+class NioServer {
+	private final EventLoop[] loops;
+	private int nextLoop = 0;
+
+	public NioServer(int loopCount) throws IOException {
+		loops = new EventLoop[Math.max(1, loopCount)];
+		ThreadFactory threadFactory = new NamedThreadFactory("eventLoop");
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop();
+			threadFactory.newThread(loops[i]).start();
+		}
+	}
+
+	// accepts connections until the listening channel fails
+	public void run(int port) throws IOException {
+		try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+			listener.bind(new InetSocketAddress(port), ServerConfig.ACCEPT_BACKLOG);
+			System.out.println("Server is running...");
+
+			while (true) {
+				accept(listener.accept());
+			}
+		}
+	}
+
+	// takes on or turns away one accepted connection, a connection which fails while it is set up
+	// is closed and the loop carries on with the next
+	private void accept(SocketChannel channel) {
+		AdmissionController.Ticket ticket = null;
+		try {
+			// null if the peer reset the connection before it was accepted
+			InetAddress address = channel.socket().getInetAddress();
+			if (address == null) {
+				channel.close();
+				return;
+			}
+			if (!ServerContext.limits.allowConnection(address)) {
+				refuse(channel, address, null);
+				return;
+			}
+			ticket = ServerContext.admission.admit();
+			if (ticket == null) {
+				refuse(channel, address, AdmissionController.SERVER_FULL);
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			ServerContext.metrics.connectionsAccepted.increment();
+
+			loops[nextLoop].register(channel, ticket);
+			nextLoop = (nextLoop + 1) % loops.length;
+		} catch (IOException | RuntimeException e) {
+			ServerContext.events.warn(EventLog.Event.CONNECTION_SETUP, null, "could not set up a connection", e);
+			if (ticket != null) {
+				ticket.release();
+			}
+			try {
+				channel.close();
+			} catch (IOException closing) {
+				// already broken
+			}
+		}
+	}
+
+	// closes a connection the server does not take on, see ServerContext.refuse()
+	// the channel is still blocking, the answer fits in its empty send buffer
+	private void refuse(SocketChannel channel, InetAddress address, String reply) {
+		ServerContext.metrics.connectionsRefused.increment();
+		try {
+			if (reply != null) {
+				ServerContext.events.info(EventLog.Event.OVERLOAD, null, "the server is full, turned away " + address.getHostAddress());
+				channel.write(StandardCharsets.UTF_8.encode(reply + "\n"));
+			}
+			else {
+				ServerContext.events.info(EventLog.Event.RATE_LIMIT, null, "refused a connection from " + address.getHostAddress());
+			}
+			channel.close();
+		} catch (IOException e) {
+			ServerContext.events.warn(EventLog.Event.CONNECTION_CLOSE, null, null, e);
+		}
+	}
+}
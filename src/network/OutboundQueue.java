@@ -0,0 +1,182 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded queue of encoded messages waiting to be written to one user.
+// Any thread may add messages, a single writer (the connection's writer thread or event loop)
+// takes them off. The queue is limited both by message count and by bytes, and once either
+// limit is reached the configured SlowConsumerPolicy decides what happens, so a user who stops
+// reading can never hold up the sender or use unbounded memory. The lock is only held to move
+// a buffer in or out, never while writing to the socket. The bytes queued are also added to
+// ServerMetrics.outboundBytes, which the AdmissionController watches, until they are taken off
+// or the connection is done with the queue and clear()s it.
+class OutboundQueue {
+	private final ArrayDeque<ByteBuffer> messages = new ArrayDeque<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+
+	private final int maxMessages;
+	private final long maxBytes;
+	private final SlowConsumerPolicy policy;
+
+	private long bytes = 0;
+	private int skipped = 0;
+	private boolean closed = false;
+	// whether the notice about skipped messages has to be sent as a frame
+	private volatile boolean framed = false;
+
+	public OutboundQueue(int maxMessages, long maxBytes, SlowConsumerPolicy policy) {
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+	}
+
+	public OutboundQueue() {
+		this(ServerConfig.OUTBOUND_QUEUE, ServerConfig.OUTBOUND_BYTES, ServerConfig.SLOW_CONSUMER);
+	}
+
+	// adds a message, returns false if the user is too slow and must be disconnected
+	public boolean offer(ByteBuffer message) {
+		int size = message.remaining();
+		lock.lock();
+		try {
+			if (closed) {
+				return true;
+			}
+
+			if (isFull(size)) {
+				switch (policy) {
+				case DROP:
+					ServerContext.metrics.slowConsumerDrops.increment();
+					return true;
+				case DISCONNECT:
+					ServerContext.metrics.slowConsumerDisconnects.increment();
+					return false;
+				case COALESCE:
+					while (!messages.isEmpty() && isFull(size)) {
+						int dropped = messages.poll().remaining();
+						bytes -= dropped;
+						ServerContext.metrics.outboundBytes.add(-dropped);
+						skipped++;
+						ServerContext.metrics.slowConsumerDrops.increment();
+					}
+					break;
+				default:
+					break;
+				}
+			}
+
+			messages.add(message);
+			bytes += size;
+			ServerContext.metrics.outboundBytes.add(size);
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isFull(int size) {
+		return messages.size() >= maxMessages || bytes + size > maxBytes;
+	}
+
+	// removes the next message, or returns null if there is none
+	public ByteBuffer poll() {
+		lock.lock();
+		try {
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// waits for the next message, returns null once the queue is closed and empty
+	public ByteBuffer take() throws InterruptedException {
+		lock.lock();
+		try {
+			while (messages.isEmpty() && skipped == 0 && !closed) {
+				notEmpty.await();
+			}
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// lets the user know about skipped messages before carrying on with the queue
+	private ByteBuffer next() {
+		if (skipped > 0) {
+			String notice = "=== " + skipped + " messages skipped, you are receiving messages too slowly ===";
+			skipped = 0;
+			return framed ? FrameCodec.encode(Frame.TEXT, notice) : StandardCharsets.UTF_8.encode(notice + "\n");
+		}
+
+		ByteBuffer message = messages.poll();
+		if (message != null) {
+			bytes -= message.remaining();
+			ServerContext.metrics.outboundBytes.add(-message.remaining());
+		}
+		return message;
+	}
+
+	// called once the client has switched to frames
+	public void useFrames() {
+		framed = true;
+	}
+
+	// stops accepting messages, anything already queued can still be taken
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// drops anything still queued once the connection has closed
+	public void clear() {
+		lock.lock();
+		try {
+			closed = true;
+			ServerContext.metrics.outboundBytes.add(-bytes);
+			messages.clear();
+			bytes = 0;
+			skipped = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isEmpty() {
+		lock.lock();
+		try {
+			return messages.isEmpty() && skipped == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return messages.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -6,62 +6,186 @@ import java.util.HashSet;
 // This class is responsible for handling incoming messages from the server.
 // Instances of this class will run on its own thread.
 // This instance will also respond to any pings sent by the server.
+// A framed client asks for a resumable session, and if the connection is lost the Printer
+// reconnects and resumes it, so the user carries on without joining again or missing messages.
 public class Printer implements Runnable {
+	private static final int RECONNECT_ATTEMPTS = 8;
+	private static final long RECONNECT_DELAY_MILLIS = 250;
 	
-	Thread pingerThread;
+	// sequence number carried by the last SEQ frame, which belongs to the next text
+	private long pendingSeq = -1;
 	
-	// stores active users, used by coordinator
+	// stores the list of active users sent by the server, used by the coordinator
+	// with frames only control messages are names, anything else arriving meanwhile is handled as
+	// usual; with the text protocol the server sends the list in one piece, so every line up to
+	// NAMES_END which is not a control message is a name
 	public void storeUserNames() {
 		ChatClient.userNames = new HashSet<>();
-		while (ChatClient.serverIn.hasNextLine()) {
-			String s = ChatClient.serverIn.nextLine();
-			if (s.equals("NAMES_END")) {
-				return;
+		try {
+			Frame message;
+			while ((message = ChatClient.readMessage()) != null) {
+				if (message.opcode == Frame.CONTROL && message.payload.equals("NAMES_END")) {
+					return;
+				}
+				boolean name = ChatClient.framed ? message.opcode == Frame.CONTROL : message.opcode == Frame.TEXT;
+				if (name) {
+					ChatClient.userNames.add(message.payload);
+				}
+				else {
+					handle(message);
+				}
 			}
-			ChatClient.userNames.add(s);
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 	
-	@Override
-	public void run() {
-		ChatClient.serverOut.println("READY");
+	// applies one MEMBER_JOIN or MEMBER_LEAVE change to the stored users
+	// asks for a new list if a change has been missed
+	private void applyMemberChange(String message) throws IOException {
+		String[] parts = message.split(" ", 3);
+		if (parts.length < 3 || ChatClient.userNames == null) {
+			return;
+		}
+
+		long seq = Long.parseLong(parts[1]);
+		if (seq <= ChatClient.membersSeq) {
+			// already part of the list we have
+			return;
+		}
+		if (seq != ChatClient.membersSeq + 1) {
+			ChatClient.userNames = null;
+			ChatClient.sendControl("MEMBERS_RESYNC");
+			return;
+		}
+
+		if (parts[0].equals("MEMBER_JOIN")) {
+			ChatClient.userNames.add(parts[2]);
+		}
+		else {
+			ChatClient.userNames.remove(parts[2]);
+		}
+		ChatClient.membersSeq = seq;
+	}
+	
+	// handles messages meant for the client rather than the user
+	private void handleControl(String message) throws IOException {
+		if (message.equals("QUIT_SUCCESS")) {
+			ChatClient.quitting = true;
+			ChatClient.socket.close();
+		}
+		else if (message.startsWith("SESSION_TOKEN ")) {
+			ChatClient.sessionToken = message.substring(14);
+		}
+		else if (message.startsWith("NAMES_BEGIN")) {
+			// the snapshot is numbered from the feed if it has a sequence number
+			String[] parts = message.split(" ");
+			storeUserNames();
+			ChatClient.membersSeq = parts.length > 1 ? Long.parseLong(parts[1]) : -1;
+		}
+		else if (message.startsWith("MEMBER_JOIN ") || message.startsWith("MEMBER_LEAVE ")) {
+			applyMemberChange(message);
+		}
+		else if (message.equals("PING")) {
+			ChatClient.sendControl("PING");
+		}
+	}
+	
+	// handles one message from the server, chat text is printed
+	private void handle(Frame message) throws IOException {
+		if (message.opcode == Frame.CONTROL) {
+			handleControl(message.payload);
+		}
+		else if (message.opcode == Frame.SEQ) {
+			pendingSeq = Long.parseLong(message.payload);
+		}
+		else {
+			if (pendingSeq >= 0) {
+				ChatClient.lastSeq = pendingSeq;
+				pendingSeq = -1;
+			}
+			System.out.println(message.payload);
+		}
+	}
+	
+	// prints messages until the connection ends
+	private void receive() {
+		try {
+			Frame message;
+			while (!ChatClient.socket.isClosed() && (message = ChatClient.readMessage()) != null) {
+				handle(message);
+			}
+		} catch (IOException e) {
+			if (!ChatClient.socket.isClosed() && ChatClient.sessionToken == null) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	// opens a new connection and resumes the session on it, returns false if that is not possible
+	private boolean reconnect() {
+		if (ChatClient.quitting || ChatClient.sessionToken == null) {
+			return false;
+		}
+		System.out.println("Connection lost, reconnecting...");
+		try {
+			ChatClient.socket.close();
+		} catch (IOException e) {
+			// already broken
+		}
 		
-		while (!ChatClient.socket.isClosed()) {
-			while (ChatClient.serverIn.hasNextLine()) {
-				String message = ChatClient.serverIn.nextLine();
-				if (message.equals("QUIT_SUCCESS")) {
-					try {
-						ChatClient.socket.close();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-					break;
-				}
-				else if (message.equals("NAMES_BEGIN")) {
-					storeUserNames();
-				}
-				else if (message.equals("PING")) {
-					ChatClient.serverOut.println("PING");
-				}
-				else if (message.equals("NEW_COORDINATOR")) {
-					pingerThread = new Thread(new Pinger(), "pingerThread");
-					pingerThread.start();
+		for (int attempt = 0; attempt < RECONNECT_ATTEMPTS; attempt++) {
+			try {
+				Thread.sleep(RECONNECT_DELAY_MILLIS << Math.min(attempt, 4));
+				ChatClient.connect();
+				ChatClient.sendControl("RESUME " + ChatClient.sessionToken + " " + ChatClient.lastSeq);
+				Frame reply = ChatClient.readMessage();
+				if (reply == null) {
+					continue;
 				}
-				else {
-					System.out.println(message);						
+				if (reply.payload.startsWith("RESUME_OK")) {
+					pendingSeq = -1;
+					String[] parts = reply.payload.split(" ");
+					if (parts.length > 2) {
+						ChatClient.resendAfter(Long.parseLong(parts[2]));
+					}
+					return true;
 				}
-			}
-			
-			// put thread to sleep to save processing power
-			try {
-				Thread.sleep(20);
+				System.out.println("The server has ended the session, please join again.");
+				ChatClient.socket.close();
+				return false;
+			} catch (IOException e) {
+				// server not reachable yet, try again
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		System.out.println("Could not reconnect to the server!");
+		return false;
+	}
+	
+	@Override
+	public void run() {
+		try {
+			ChatClient.sendControl("MEMBERS_VERSIONED");
+			ChatClient.sendControl("READY");
+			if (ChatClient.followMembers) {
+				ChatClient.sendControl("MEMBERS_SUBSCRIBE");
+			}
+			if (ChatClient.framed) {
+				ChatClient.sendControl("RESUMABLE");
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		
-		if (pingerThread != null && pingerThread.isAlive()) {
-			pingerThread.interrupt();
+		// wait for messages until the server closes the connection, or for good if it cannot be resumed
+		receive();
+		while (reconnect()) {
+			System.out.println("Reconnected!");
+			receive();
 		}
+		ChatClient.running = false;
 	}
 }
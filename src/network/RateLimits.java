@@ -0,0 +1,105 @@
+package network;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Limits how fast clients may send, so one user pasting a flood of lines cannot make the server
+// broadcast every one of them to everybody. Each limit is a TokenBucket holding
+// chat.rateBurstSeconds worth of its rate. Every user has a bucket for messages and one for bytes,
+// checked for each chat message or command before it is handled; a message over the limit is
+// dropped and the user told once. Users connecting from the same address may also share buckets,
+// and new connections from an address be limited when they are accepted. Those are off by default
+// since many users can share an address behind NAT. The buckets of an address are forgotten once
+// they have been full for a while, so the map only holds addresses which are sending.
+class RateLimits {
+	private static final int SWEEP_SECONDS = 10;
+
+	// the buckets of one user, null where there is no limit
+	static class UserLimit {
+		final TokenBucket messages = bucket(ServerConfig.USER_MESSAGE_RATE);
+		final TokenBucket bytes = bucket(ServerConfig.USER_BYTE_RATE);
+	}
+
+	// the buckets shared by everyone connecting from one address
+	private static class AddressLimit {
+		final TokenBucket connections = bucket(ServerConfig.IP_CONNECT_RATE);
+		final TokenBucket messages = bucket(ServerConfig.IP_MESSAGE_RATE);
+		final TokenBucket bytes = bucket(ServerConfig.IP_BYTE_RATE);
+
+		boolean isFull(long now) {
+			return (connections == null || connections.isFull(now)) && (messages == null || messages.isFull(now)) &&
+					(bytes == null || bytes.isFull(now));
+		}
+	}
+
+	private final boolean addressLimits = ServerConfig.IP_CONNECT_RATE > 0 || ServerConfig.IP_MESSAGE_RATE > 0 ||
+			ServerConfig.IP_BYTE_RATE > 0;
+	private final ConcurrentHashMap<InetAddress, AddressLimit> addresses = new ConcurrentHashMap<>();
+
+	private static TokenBucket bucket(double rate) {
+		return rate > 0 ? new TokenBucket(rate, rate * ServerConfig.RATE_BURST_SECONDS) : null;
+	}
+
+	// starts forgetting the addresses which have stopped sending
+	public void start() {
+		if (addressLimits) {
+			ServerContext.scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
+	// returns whether a connection just accepted from the address may be served
+	public boolean allowConnection(InetAddress address) {
+		if (ServerConfig.IP_CONNECT_RATE <= 0) {
+			return true;
+		}
+		return address(address).connections.tryTake(1);
+	}
+
+	// returns whether a message from the user may be handled, a message turned away still uses
+	// up what it took from the buckets checked before the one which turned it away
+	public boolean allowMessage(Session session, UserLimit user, String text) {
+		int bytes = utf8Length(text) + 1;
+		if (user.messages != null && !user.messages.tryTake(1)) {
+			return false;
+		}
+		if (user.bytes != null && !user.bytes.tryTake(bytes)) {
+			return false;
+		}
+		if (!addressLimits) {
+			return true;
+		}
+
+		AddressLimit address = address(session.socket().getInetAddress());
+		if (address.messages != null && !address.messages.tryTake(1)) {
+			return false;
+		}
+		return address.bytes == null || address.bytes.tryTake(bytes);
+	}
+
+	private AddressLimit address(InetAddress address) {
+		AddressLimit limit = addresses.get(address);
+		if (limit == null) {
+			limit = addresses.computeIfAbsent(address, key -> new AddressLimit());
+		}
+		return limit;
+	}
+
+	// a bucket removed while in use only lets its address send a little more for a moment
+	private void sweep() {
+		long now = System.nanoTime();
+		addresses.values().removeIf(limit -> limit.isFull(now));
+	}
+
+	// size of the text in UTF-8 without encoding it, as it was read
+	private static int utf8Length(String text) {
+		int bytes = text.length();
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				bytes += c >= 0x800 && !Character.isSurrogate(c) ? 2 : 1;
+			}
+		}
+		return bytes;
+	}
+}
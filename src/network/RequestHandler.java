@@ -1,112 +1,176 @@
 package network;
 
-import java.io.IOException;
-import java.net.Socket;
-import java.util.Map;
-
 // This class is responsible for handling any requests sent in from the client.
 class RequestHandler {
-	ServerWorker serverWorker;
-	
-	public RequestHandler(ServerWorker serverWorker) {
-		this.serverWorker = serverWorker;
+	Session session;
+
+	public RequestHandler(Session session) {
+		this.session = session;
 	}
-	
-	// checks if there is a request in messageQueue and if so, handles the request accordingly
-	public void handleRequest() {
-		if (serverWorker.messageQueue.isEmpty()) {
+
+	// handles a request read from the client
+	public void handleRequest(String message) {
+		if (message.isEmpty()) {
 			return;
 		}
-		
-		String message = serverWorker.nextLine();
-		
+
+		long start = System.nanoTime();
 		if (message.charAt(0) == '!') {
 			handleCommand(message);
 		}
-		else if (message.equals("PING_START")) {
-			serverWorker.handlePings();
-		}
 		else {
 			handleMessage(message);
 		}
+		ServerContext.metrics.requests.increment();
+		ServerContext.metrics.requestNanos.record(System.nanoTime() - start);
 	}
-	
+
 	// handles command requests from the client
 	public void handleCommand(String message) {
 		if (message.equals("!coordinator")) {
-			serverWorker.printCoordinatorMessage();
+			session.printCoordinatorMessage();
 		}
 		else if (message.equals("!online")) {
-			serverWorker.printUserDetailsMessage();
+			session.printUserDetailsMessage();
+		}
+		else if (message.equals("!stats")) {
+			// the coordinator looks after the chat, so only they see how the server is doing
+			if (ServerContext.election.coordinator() != session) {
+				session.send("Only the coordinator can view the server's statistics!");
+				return;
+			}
+			for (String line : ServerContext.metrics.lines()) {
+				session.send(line);
+			}
 		}
 		else if (message.equals("!commands") || message.equals("!help")) {
-			serverWorker.printCommands();
+			session.printCommands();
 		}
 		else if (message.equals("!broadcast")) {
-			serverWorker.messageMode = MessageMode.BROADCAST;
-			serverWorker.printMessageMode();
+			session.messageMode = MessageMode.BROADCAST;
+			session.printMessageMode();
 		}
 		else if (message.length() > 9 && message.substring(0, 9).equals("!private ")) {
 			// get substring from 9th char to remove the command part of message
 			String name = message.substring(9);
-			if (name.equals(serverWorker.userName)) {
-				serverWorker.serverOut.println("Cannot send private message to yourself!");
+			if (name.equals(session.userName)) {
+				session.send("Cannot send private message to yourself!");
+				return;
+			}
+
+			session.setPrivateRecipient(name);
+			session.messageMode = MessageMode.PRIVATE;
+			session.printMessageMode();
+
+			// messages to a user who is not in the chat are kept until they join
+			Cluster cluster = ServerContext.cluster;
+			if (!ServerContext.users.contains(name) && (cluster == null || cluster.nodeOf(name) == null)) {
+				session.send(name + " is not online, your messages will be kept until they return.");
+				session.setRecipientAway();
+			}
+		}
+		else if (message.startsWith("!join ")) {
+			String name = message.substring(6);
+			if (!RoomRegistry.isValidName(name)) {
+				session.send("Room names start with # followed by up to 32 letters, digits, - or _");
 				return;
 			}
-			
-			// find name in map and set to privateRecipient
-			Socket targetSocket = null;
-			for (Map.Entry<Socket, String> entry : ServerContext.activeUsers.entrySet()) {
-				if (entry.getValue().equals(name)) {
-					targetSocket = entry.getKey();
-					break;
+			session.joinRoom(name);
+		}
+		else if (message.startsWith("!leave ")) {
+			String name = message.substring(7);
+			if (!session.leaveRoom(name)) {
+				session.send("You are not in " + name + "!");
+				return;
+			}
+			session.send("Left " + name + ".");
+			session.printMessageMode();
+		}
+		else if (message.equals("!history") || message.startsWith("!history ")) {
+			int count = ServerConfig.HISTORY_REPLAY;
+			if (message.length() > 9) {
+				try {
+					count = Integer.parseInt(message.substring(9).trim());
+				} catch (NumberFormatException e) {
+					session.send("Usage: !history [N]");
+					return;
 				}
 			}
-			
-			// if name not in map, do not change messageMode
-			if (targetSocket == null) {
-				serverWorker.serverOut.println("Username not found in active users!");
+			MessageHistory history = session.messageMode == MessageMode.CHANNEL
+					? session.channel.history
+					: ServerContext.history;
+			if (history.size() == 0) {
+				session.send("No messages yet.");
 				return;
 			}
-			
-			serverWorker.privateRecipient = targetSocket;
-			serverWorker.messageMode = MessageMode.PRIVATE;
-			serverWorker.printMessageMode();
+			session.printHistory(history, count);
 		}
-		else if (message.equals("!quit")) {
-			serverWorker.serverOut.println("QUIT_SUCCESS");
-			
-			// close socket, input and output streams
-			try {
-				serverWorker.socket.close();
-				serverWorker.serverIn.close();
-				serverWorker.serverOut.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+		else if (message.startsWith("!search ")) {
+			String query = message.substring(8).trim();
+			if (SearchIndex.terms(query).isEmpty()) {
+				session.send("Usage: !search WORDS");
+				return;
+			}
+			MessageHistory history = session.messageMode == MessageMode.CHANNEL
+					? session.channel.history
+					: ServerContext.history;
+			if (!history.index.search(session, query, ServerConfig.SEARCH_RESULTS)) {
+				session.send("The server is busy, try searching again in a moment.");
 			}
-			
-			serverWorker.validateUsers();
+		}
+		else if (message.equals("!quit")) {
+			session.sendControl("QUIT_SUCCESS");
+
+			// close the connection once QUIT_SUCCESS has been written
+			session.disconnect();
 			return;
 		}
 		else {
-			serverWorker.serverOut.println("Invalid command!");
+			session.send("Invalid command!");
 		}
 	}
-	
+
 	// handles standard messages from the client and sends it as broadcast or private message
 	// depending on the active messageMode enum
+	// broadcast messages are kept in the history of the chat or room they were sent to,
+	// and passed on to the other nodes of a cluster
 	public void handleMessage(String message) {
-		switch (serverWorker.messageMode) {
+		SharedMessage shared;
+		Cluster cluster = ServerContext.cluster;
+		switch (session.messageMode) {
 		case BROADCAST:
-			message = ServerWorker.getCurrentTimestamp() + ServerContext.activeUsers.get(serverWorker.socket) + ": " + message;
-			serverWorker.broadcast(message);
+			message = Session.getCurrentTimestamp() + session.userName + ": " + message;
+			shared = new SharedMessage(message);
+			keep(ServerContext.history, "", shared);
+			session.broadcast(shared);
+			if (cluster != null) {
+				cluster.chat(message);
+			}
 			break;
 		case PRIVATE:
-			message = ServerWorker.getCurrentTimestamp() + ServerContext.activeUsers.get(serverWorker.socket) + " (PRIVATE): " + message;
-			serverWorker.privateMessage(message);
+			message = Session.getCurrentTimestamp() + session.userName + " (PRIVATE): " + message;
+			session.privateMessage(message);
+			break;
+		case CHANNEL:
+			message = Session.getCurrentTimestamp() + session.channel.name + " " + session.userName + ": " + message;
+			shared = new SharedMessage(message);
+			keep(session.channel.history, session.channel.name, shared);
+			session.channel.broadcast(shared);
+			if (cluster != null) {
+				cluster.room(session.channel.name, message);
+			}
 			break;
 		default:
 			break;
 		}
 	}
+
+	// adds a message to the history of the chat or room it was sent to, and to the message log
+	static void keep(MessageHistory history, String room, SharedMessage message) {
+		history.add(message);
+		MessageLog log = ServerContext.log;
+		if (log != null) {
+			log.append(System.currentTimeMillis(), room, message.text);
+		}
+	}
 }
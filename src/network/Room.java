@@ -0,0 +1,56 @@
+package network;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A named channel, such as #general, which users join with !join and leave with !leave.
+// Each room keeps its own set of members, so a message sent to a room only costs as much as the
+// room has members no matter how many users are on the server. Members are added and removed
+// through the RoomRegistry, which also drops the room once the last member has left.
+class Room {
+	public final String name;
+	private final Set<Session> members = ConcurrentHashMap.newKeySet();
+	public final MessageHistory history;
+
+	public Room(String name, MessageHistory history) {
+		this.name = name;
+		this.history = history;
+	}
+
+	boolean add(Session session) {
+		return members.add(session);
+	}
+
+	boolean remove(Session session) {
+		return members.remove(session);
+	}
+
+	public boolean contains(Session session) {
+		return members.contains(session);
+	}
+
+	public int size() {
+		return members.size();
+	}
+
+	// live view of the members, safe to iterate while users join and leave
+	public Collection<Session> members() {
+		return members;
+	}
+
+	// sends a message to every member of the room, encoded once for all of them
+	public void broadcast(String message) {
+		broadcast(new SharedMessage(message));
+	}
+
+	public void broadcast(SharedMessage shared) {
+		long start = System.nanoTime();
+		int recipients = 0;
+		for (Session member : members) {
+			member.send(shared);
+			recipients++;
+		}
+		ServerContext.metrics.broadcast(recipients, System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,127 @@
+package network;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Index of the rooms which currently have members, by name.
+// A room is created by the first user to join it and removed when the last one leaves. Both
+// happen inside ConcurrentHashMap.compute for the room's name, so a user joining at the same
+// moment as the last member leaves either keeps the room alive or creates a fresh one, and is
+// never added to a room which has just been dropped.
+// At most chat.maxRooms rooms can have members at once, joining a room beyond that is refused,
+// so clients cannot make the server hold a history for every name they think of.
+// A room's history is kept when the room is dropped, so it is still there for the next user to
+// join it, and can be filled from the message log or another node before anyone has joined.
+// Only chat.roomHistories of those are kept for rooms nobody is in, the least recently used one
+// is dropped to make room for another, and an empty history is not kept at all.
+class RoomRegistry {
+	private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+	// histories of rooms without members, in the order they were last used
+	private final ReentrantLock idleLock = new ReentrantLock();
+	private final LinkedHashMap<String, MessageHistory> idle = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, MessageHistory> eldest) {
+			return size() > ServerConfig.ROOM_HISTORIES;
+		}
+	};
+
+	// adds the session to the named room, creating it if needed, and returns the room,
+	// or null if it does not exist and there are already chat.maxRooms rooms
+	public Room join(String name, Session session) {
+		return rooms.compute(name, (key, room) -> {
+			if (room == null) {
+				if (rooms.size() >= ServerConfig.MAX_ROOMS) {
+					return null;
+				}
+				room = new Room(key, takeIdle(key));
+			}
+			room.add(session);
+			return room;
+		});
+	}
+
+	// removes the session from the named room, returns false if it was not a member
+	public boolean leave(String name, Session session) {
+		boolean[] removed = new boolean[1];
+		rooms.computeIfPresent(name, (key, room) -> {
+			removed[0] = room.remove(session);
+			if (room.size() > 0) {
+				return room;
+			}
+			if (room.history.size() > 0) {
+				putIdle(key, room.history);
+			}
+			return null;
+		});
+		return removed[0];
+	}
+
+	// recent messages of the named room, whether or not it currently has members
+	public MessageHistory history(String name) {
+		MessageHistory[] history = new MessageHistory[1];
+		// compute keeps a room from being created or dropped meanwhile
+		rooms.compute(name, (key, room) -> {
+			if (room != null) {
+				history[0] = room.history;
+			}
+			else {
+				idleLock.lock();
+				try {
+					history[0] = idle.computeIfAbsent(key, k -> new MessageHistory());
+				} finally {
+					idleLock.unlock();
+				}
+			}
+			return room;
+		});
+		return history[0];
+	}
+
+	// the history kept for a room nobody was in, or a new one
+	private MessageHistory takeIdle(String name) {
+		idleLock.lock();
+		try {
+			MessageHistory history = idle.remove(name);
+			return history == null ? new MessageHistory() : history;
+		} finally {
+			idleLock.unlock();
+		}
+	}
+
+	private void putIdle(String name, MessageHistory history) {
+		idleLock.lock();
+		try {
+			idle.put(name, history);
+		} finally {
+			idleLock.unlock();
+		}
+	}
+
+	public Room get(String name) {
+		return rooms.get(name);
+	}
+
+	public Collection<Room> rooms() {
+		return rooms.values();
+	}
+
+	// returns whether name can be used for a room: a # followed by up to 32 letters, digits, - or _
+	public static boolean isValidName(String name) {
+		if (name.length() < 2 || name.length() > 33 || name.charAt(0) != '#') {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,212 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// Inverted index over the messages held by one MessageHistory, used by !search.
+// Each word maps to the ids of the messages containing it, stored as a posting list of
+// variable-length deltas in a byte array, so a word used in every message costs about one byte
+// per message instead of a boxed object. Messages get increasing ids and leave the index oldest
+// first as the history overwrites them, so a message being removed is always at the head of the
+// posting lists of its words and removing it only moves their start forward.
+// Every index is only ever touched by the single search thread: adding a message and running a
+// query are both handed to it, so the index needs no locking and a slow search never holds up
+// the thread delivering messages.
+public class SearchIndex {
+	private final Executor executor;
+	private final String[] messages;
+	private final int mask;
+	private long next = 0;
+	private final Map<String, Postings> terms = new HashMap<>();
+
+	// ids of the messages containing one word, oldest first
+	private static class Postings {
+		byte[] data = new byte[8];
+		int start = 0;
+		int end = 0;
+		int count = 0;
+		// id before the head, which the first delta is relative to
+		long base = 0;
+		long last = 0;
+
+		void add(long id) {
+			if (end + 10 > data.length && start > data.length / 2) {
+				// most of the array is removed entries, reuse it before growing
+				System.arraycopy(data, start, data, 0, end - start);
+				end -= start;
+				start = 0;
+			}
+			if (end + 10 > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, end + 10));
+			}
+			long delta = id - last;
+			while ((delta & ~0x7fL) != 0) {
+				data[end++] = (byte) ((delta & 0x7f) | 0x80);
+				delta >>>= 7;
+			}
+			data[end++] = (byte) delta;
+			last = id;
+			count++;
+		}
+
+		void removeHead() {
+			long delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[start++];
+				delta |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			base += delta;
+			count--;
+		}
+
+		long[] ids() {
+			long[] ids = new long[count];
+			long id = base;
+			int position = start;
+			for (int i = 0; i < count; i++) {
+				long delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[position++];
+					delta |= (long) (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+				id += delta;
+				ids[i] = id;
+			}
+			return ids;
+		}
+	}
+
+	// capacity should match the history's so the index covers the same messages
+	public SearchIndex(int capacity, Executor executor) {
+		messages = new String[Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1];
+		mask = messages.length - 1;
+		this.executor = executor;
+	}
+
+	// hands a message to the search thread to be indexed, if the thread is so far behind that
+	// its queue is full the message is left out of the index rather than holding up the sender
+	public void add(String message) {
+		try {
+			executor.execute(() -> index(message));
+		} catch (RejectedExecutionException e) {
+			return;
+		}
+	}
+
+	// runs a query on the search thread and sends the session the newest matching messages,
+	// returns false if the search thread is too busy to take it
+	public boolean search(Session session, String query, int limit) {
+		try {
+			executor.execute(() -> {
+				List<String> found = find(query, limit);
+				session.send("=== Search results for \"" + query + "\" ===");
+				for (String message : found) {
+					session.send(message);
+				}
+				session.send("=== " + (found.isEmpty() ? "No" : found.size()) +
+						(found.size() == 1 ? " matching message ===" : " matching messages ==="));
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	// indexes a message, removing the oldest one if the index is full
+	public void index(String message) {
+		long id = next++;
+		int slot = (int) (id & mask);
+		if (messages[slot] != null) {
+			for (String term : terms(messages[slot])) {
+				Postings postings = terms.get(term);
+				postings.removeHead();
+				if (postings.count == 0) {
+					terms.remove(term);
+				}
+			}
+		}
+		messages[slot] = message;
+		for (String term : terms(message)) {
+			terms.computeIfAbsent(term, key -> new Postings()).add(id);
+		}
+	}
+
+	// newest first, up to limit messages containing every word of the query
+	public List<String> find(String query, int limit) {
+		List<String> found = new ArrayList<>();
+		List<Postings> lists = new ArrayList<>();
+		for (String term : terms(query)) {
+			Postings postings = terms.get(term);
+			if (postings == null) {
+				return found;
+			}
+			lists.add(postings);
+		}
+		if (lists.isEmpty()) {
+			return found;
+		}
+
+		// intersect starting from the shortest list, so the work is bounded by the rarest word
+		lists.sort((a, b) -> Integer.compare(a.count, b.count));
+		long[] matches = lists.get(0).ids();
+		int matchCount = matches.length;
+		for (int i = 1; i < lists.size() && matchCount > 0; i++) {
+			long[] ids = lists.get(i).ids();
+			int kept = 0;
+			int j = 0;
+			for (int k = 0; k < matchCount; k++) {
+				while (j < ids.length && ids[j] < matches[k]) {
+					j++;
+				}
+				if (j < ids.length && ids[j] == matches[k]) {
+					matches[kept++] = matches[k];
+				}
+			}
+			matchCount = kept;
+		}
+
+		for (int k = matchCount - 1; k >= 0 && found.size() < limit; k--) {
+			found.add(messages[(int) (matches[k] & mask)]);
+		}
+		return found;
+	}
+
+	// the distinct lower case words of a message, leaving out its [hh:mm:ss] timestamp
+	public static Set<String> terms(String text) {
+		Set<String> words = new LinkedHashSet<>();
+		int i = 0;
+		if (text.startsWith("[")) {
+			int close = text.indexOf(']');
+			if (close > 0) {
+				i = close + 1;
+			}
+		}
+		int length = text.length();
+		while (i < length) {
+			while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+				i++;
+			}
+			if (i > start) {
+				words.add(text.substring(start, i).toLowerCase());
+			}
+		}
+		return words;
+	}
+}
@@ -0,0 +1,92 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// ClusterHost of the running server, passing what the other nodes send to the sessions,
+// histories, rooms and mailboxes of ServerContext.
+class ServerClusterHost implements ClusterHost {
+
+	@Override
+	public List<Cluster.RemoteUser> users() {
+		List<Cluster.RemoteUser> users = new ArrayList<>();
+		for (Session session : ServerContext.users.sessions()) {
+			if (session.isNamed()) {
+				users.add(new Cluster.RemoteUser(session.userName, ServerConfig.CLUSTER_NODE,
+						session.socket().getLocalAddress().getHostAddress(), String.valueOf(session.socket().getLocalPort())));
+			}
+		}
+		return users;
+	}
+
+	@Override
+	public List<String> names() {
+		List<String> names = new ArrayList<>();
+		for (Session session : ServerContext.users.sessions()) {
+			String name = session.userName;
+			if (name != null) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	@Override
+	public String coordinator() {
+		Session coordinator = ServerContext.election.coordinator();
+		return coordinator == null ? null : coordinator.userName;
+	}
+
+	@Override
+	public void chat(String text) {
+		SharedMessage chat = new SharedMessage(text);
+		RequestHandler.keep(ServerContext.history, "", chat);
+		broadcast(chat);
+	}
+
+	@Override
+	public void room(String name, String text) {
+		SharedMessage shared = new SharedMessage(text);
+		RequestHandler.keep(ServerContext.rooms.history(name), name, shared);
+		Room room = ServerContext.rooms.get(name);
+		if (room != null) {
+			room.broadcast(shared);
+		}
+	}
+
+	@Override
+	public void privateMessage(String name, String text) {
+		ServerContext.mailboxes.receive(name, text);
+	}
+
+	@Override
+	public List<String> takeMail(String name) {
+		return ServerContext.mailboxes.take(name);
+	}
+
+	@Override
+	public void joined(String name) {
+		ServerContext.members.joined(name);
+		broadcast(name + " has joined the chat!");
+	}
+
+	@Override
+	public void left(String name) {
+		ServerContext.members.left(name);
+		broadcast(name + " has left the chat!");
+	}
+
+	@Override
+	public void broadcast(String text) {
+		broadcast(new SharedMessage(text));
+	}
+
+	// hands a message to every user on this node who has finished joining
+	private void broadcast(SharedMessage message) {
+		for (Session user : ServerContext.users.sessions()) {
+			if (user.isActive()) {
+				user.send(message);
+			}
+		}
+	}
+}
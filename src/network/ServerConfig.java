@@ -0,0 +1,113 @@
+package network;
+
+// Startup options for the server. Options are read from system properties so they can be
+// given on the command line, e.g. java -Dchat.mode=nio network.ChatServer
+//
+// chat.mode              blocking (default) runs a worker thread per user,
+//                        virtual runs the same workers on virtual threads (Java 21+)
+//                        nio multiplexes every user over a few selector threads
+// chat.eventLoops        number of selector threads used in nio mode
+// chat.maxConnections    connections served at once, further ones are answered SERVER_FULL, see AdmissionController
+//                        500 by default in blocking mode, where every connection takes a worker thread
+// chat.maxHandshakes     connections served at once whose user has not yet joined the chat
+// chat.outboundWatermark bytes queued for all users together beyond which new connections are answered SERVER_FULL
+// chat.acceptBacklog     length of the pending connection queue on the listening socket
+// chat.inboundQueue      lines a blocking worker buffers before its stream reader stops reading
+// chat.outboundQueue     messages queued for a user before chat.slowConsumer applies
+// chat.outboundBytes     bytes queued for a user before chat.slowConsumer applies
+// chat.slowConsumer      drop, disconnect or coalesce (default), see SlowConsumerPolicy
+// chat.maxLine           longest line in bytes accepted from a client using the text protocol
+// chat.maxFrame          largest frame accepted from a client using the framed protocol
+// chat.historySize       recent messages kept for the chat and for each room
+// chat.historyReplay     recent messages sent to a user when they join the chat or a room
+// chat.maxRooms          rooms which may have members at once, joining a further room is refused
+// chat.roomHistories     histories kept for rooms nobody is in, the least recently used are dropped
+// chat.searchResults     most messages a !search returns
+// chat.searchQueue       messages and searches which may wait for the search thread
+// chat.mailboxSize       private messages kept for a user who is offline
+// chat.mailboxes         users who may have private messages kept for them at once
+// chat.resumeWindow      chat texts kept for a resumable session to resend after it reconnects
+// chat.resumeGraceMillis how long a resumable session waits for its client to reconnect
+// chat.logDir            directory of the message log which keeps history and mailboxes across restarts, no log if unset
+// chat.logFsync          always, interval (default) or never, see FsyncPolicy
+// chat.logFsyncMillis    how often the message log is synced to disk with chat.logFsync=interval
+// chat.logSegmentBytes   size at which the message log starts a new segment file
+// chat.logRetentionBytes total size of segments kept, the oldest are deleted beyond it
+// chat.logReplayMillis   how far back the message log is read to fill the history on startup
+// chat.clusterNode       id of this server in its cluster, no cluster if unset, see Cluster
+// chat.clusterNodes      every node of the cluster as id=host:port separated by commas, this one included
+// chat.clusterSecret     secret every node of the cluster is given, no cluster if unset, see TcpMeshBus
+// chat.clusterQueue      messages queued for another node before it is disconnected
+// chat.clusterWaitMillis how long a new user waits for another node to agree to their name
+// chat.metricsPort       local port the metrics are served on over HTTP, none if unset, see ServerMetrics
+// chat.eventQueue        events waiting to be written to the log before new ones are dropped, see EventLog
+// chat.eventBurst        events of one kind logged per second, the rest are only counted
+// chat.userMessageRate   messages a second a user may send, 0 for no limit, see RateLimits
+// chat.userByteRate      bytes a second a user may send, 0 for no limit
+// chat.ipMessageRate     messages a second the users of one address may send together, no limit if unset
+// chat.ipByteRate        bytes a second the users of one address may send together, no limit if unset
+// chat.ipConnectRate     connections a second accepted from one address, no limit if unset
+// chat.rateBurstSeconds  how many seconds of its rate a limit lets through at once
+// chat.nameWaitMillis    how long a new connection has to get a name accepted before it is closed, see Handshake
+// chat.readyWaitMillis   how long a client has to send READY once its name has been accepted
+// chat.heartbeatMillis   how long a user may stay silent before the server sends them a PING
+// chat.heartbeatMisses   unanswered PINGs in a row after which a user is disconnected
+// chat.pingTimeoutMillis how long a user has to answer a PING before it counts as missed
+class ServerConfig {
+	public static final ServerMode MODE = ServerMode.valueOf(
+			System.getProperty("chat.mode", "blocking").toUpperCase());
+	public static final int EVENT_LOOPS = Integer.getInteger("chat.eventLoops",
+			Runtime.getRuntime().availableProcessors());
+	public static final int MAX_CONNECTIONS = Integer.getInteger("chat.maxConnections",
+			MODE == ServerMode.BLOCKING ? 500 : 10000);
+	public static final int MAX_HANDSHAKES = Integer.getInteger("chat.maxHandshakes", 256);
+	public static final long OUTBOUND_WATERMARK = Long.getLong("chat.outboundWatermark", 256 * 1024 * 1024);
+	public static final int ACCEPT_BACKLOG = Integer.getInteger("chat.acceptBacklog", 1024);
+	public static final int INBOUND_QUEUE = Integer.getInteger("chat.inboundQueue", 64);
+	public static final int OUTBOUND_QUEUE = Integer.getInteger("chat.outboundQueue", 1024);
+	public static final long OUTBOUND_BYTES = Long.getLong("chat.outboundBytes", 1024 * 1024);
+	public static final SlowConsumerPolicy SLOW_CONSUMER = SlowConsumerPolicy.valueOf(
+			System.getProperty("chat.slowConsumer", "coalesce").toUpperCase());
+	public static final int MAX_LINE = Integer.getInteger("chat.maxLine", 8 * 1024);
+	public static final int MAX_FRAME = Integer.getInteger("chat.maxFrame", 64 * 1024);
+	public static final int HISTORY_SIZE = Integer.getInteger("chat.historySize", 256);
+	public static final int HISTORY_REPLAY = Integer.getInteger("chat.historyReplay", 20);
+	public static final int MAX_ROOMS = Integer.getInteger("chat.maxRooms", 1000);
+	public static final int ROOM_HISTORIES = Integer.getInteger("chat.roomHistories", 1000);
+	public static final int SEARCH_RESULTS = Integer.getInteger("chat.searchResults", 20);
+	public static final int SEARCH_QUEUE = Integer.getInteger("chat.searchQueue", 64 * 1024);
+	public static final int MAILBOX_SIZE = Integer.getInteger("chat.mailboxSize", 100);
+	public static final int MAILBOXES = Integer.getInteger("chat.mailboxes", 10000);
+	public static final int RESUME_WINDOW = Integer.getInteger("chat.resumeWindow", 256);
+	public static final long RESUME_GRACE_MILLIS = Long.getLong("chat.resumeGraceMillis", 30000);
+	public static final String LOG_DIR = System.getProperty("chat.logDir");
+	public static final FsyncPolicy LOG_FSYNC = FsyncPolicy.valueOf(
+			System.getProperty("chat.logFsync", "interval").toUpperCase());
+	public static final long LOG_FSYNC_MILLIS = Long.getLong("chat.logFsyncMillis", 1000);
+	public static final long LOG_SEGMENT_BYTES = Long.getLong("chat.logSegmentBytes", 64L * 1024 * 1024);
+	public static final long LOG_RETENTION_BYTES = Long.getLong("chat.logRetentionBytes", 1024L * 1024 * 1024);
+	public static final long LOG_REPLAY_MILLIS = Long.getLong("chat.logReplayMillis", 15 * 60 * 1000);
+	public static final String CLUSTER_NODE = System.getProperty("chat.clusterNode");
+	public static final String CLUSTER_NODES = System.getProperty("chat.clusterNodes", "");
+	public static final String CLUSTER_SECRET = System.getProperty("chat.clusterSecret");
+	public static final int CLUSTER_QUEUE = Integer.getInteger("chat.clusterQueue", 64 * 1024);
+	public static final long CLUSTER_WAIT_MILLIS = Long.getLong("chat.clusterWaitMillis", 5000);
+	public static final int METRICS_PORT = Integer.getInteger("chat.metricsPort", -1);
+	public static final int EVENT_QUEUE = Integer.getInteger("chat.eventQueue", 8192);
+	public static final int EVENT_BURST = Integer.getInteger("chat.eventBurst", 10);
+	public static final double USER_MESSAGE_RATE = Double.parseDouble(System.getProperty("chat.userMessageRate", "20"));
+	public static final double USER_BYTE_RATE = Double.parseDouble(System.getProperty("chat.userByteRate", "32768"));
+	public static final double IP_MESSAGE_RATE = Double.parseDouble(System.getProperty("chat.ipMessageRate", "0"));
+	public static final double IP_BYTE_RATE = Double.parseDouble(System.getProperty("chat.ipByteRate", "0"));
+	public static final double IP_CONNECT_RATE = Double.parseDouble(System.getProperty("chat.ipConnectRate", "0"));
+	public static final double RATE_BURST_SECONDS = Double.parseDouble(System.getProperty("chat.rateBurstSeconds", "2"));
+	public static final int NAME_WAIT_MILLIS = Integer.getInteger("chat.nameWaitMillis", 30000);
+	public static final int READY_WAIT_MILLIS = Integer.getInteger("chat.readyWaitMillis", 10000);
+	public static final int HEARTBEAT_MILLIS = Integer.getInteger("chat.heartbeatMillis", 30000);
+	public static final int HEARTBEAT_MISSES = Integer.getInteger("chat.heartbeatMisses", 3);
+	public static final int PING_TIMEOUT_MILLIS = Integer.getInteger("chat.pingTimeoutMillis", 5000);
+
+	private ServerConfig() {
+
+	}
+}
@@ -1,21 +1,73 @@
 package network;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 // Singleton design pattern. Only one ServerContext is allowed to run at a time.
 // This class is responsible for setting up the server and accepting any incoming
 // connection requests. While setting up the server, user is asked for a port number
 // and their input is validated to ensure it is a valid port. The server closes all
-// sockets before exiting the program.
+// sockets before exiting the program. Depending on ServerConfig.MODE connections are either
+// served by a ServerWorker thread each or by the event loops of a NioServer.
 class ServerContext {
-	public static HashMap<Socket, String> activeUsers = new HashMap<>();
-	public static Socket coordinatorSocket = null;
+	// where the server reports what goes wrong, without making the reporting thread wait
+	public static final EventLog events = new EventLog(System.err, ServerConfig.EVENT_QUEUE);
+	
+	public static final SessionRegistry users = new SessionRegistry();
+	public static final CoordinatorElection election = new CoordinatorElection();
+	public static final MembershipFeed members = new MembershipFeed();
+	public static final RoomRegistry rooms = new RoomRegistry();
+	public static final Mailboxes mailboxes = new Mailboxes();
+	
+	// keeps the search indexes of the histories up to date and runs searches on them
+	public static final ThreadPoolExecutor searcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(ServerConfig.SEARCH_QUEUE), new NamedThreadFactory("search"));
+	
+	// recent messages sent to everyone, rooms keep their own
+	public static final MessageHistory history = new MessageHistory();
+	
+	// keeps messages across restarts, null unless chat.logDir is set
+	public static volatile MessageLog log = null;
+	
+	// connects this server to the other nodes of its cluster, null unless chat.clusterNode is set
+	public static volatile Cluster cluster = null;
+	
+	// counts connections, messages, pings and latencies, see ServerMetrics
+	public static final ServerMetrics metrics = new ServerMetrics();
+	
+	// how fast users and addresses may connect and send, see RateLimits
+	public static final RateLimits limits = new RateLimits();
+	
+	// turns new connections away once the server is full, see AdmissionController
+	public static final AdmissionController admission = new AdmissionController();
+	
+	// create the threads each ServerWorker reads and writes its user's streams on
+	public static ThreadFactory streamReaderThreads = new NamedThreadFactory("streamReader");
+	public static ThreadFactory streamWriterThreads = new NamedThreadFactory("streamWriter");
+	
+	// used for delayed work such as checking for ping replies
+	public static ScheduledExecutorService scheduler =
+			Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("scheduler"));
+	
+	// holds the per-user deadlines such as heartbeats, ticking every 100ms on the scheduler
+	public static final TimerWheel timer = new TimerWheel(scheduler, 100, 1024);
+	
+	// how often users whose connection has closed unnoticed are looked for
+	private static final int CLOSED_USERS_SECONDS = 30;
 	
 	private static ServerContext instance = null;
 	
@@ -59,38 +111,199 @@ class ServerContext {
 		// closing system input stream
 		in.close();
 		
-		// create thread pool which Worker instances will use to handle communication between server and users
-		ExecutorService pool = Executors.newFixedThreadPool(500, new NamedThreadFactory("serverWorker"));
+		openMessageLog();
+		startCluster();
+		metrics.start();
+		limits.start();
+		scheduler.scheduleWithFixedDelay(Session::removeClosedUsers, CLOSED_USERS_SECONDS, CLOSED_USERS_SECONDS,
+				TimeUnit.SECONDS);
+		
+		if (ServerConfig.MODE == ServerMode.NIO) {
+			runNio(port);
+			return;
+		}
+		
+		// create thread pool which Worker instances will use to handle communication between server and users,
+		// large enough for every connection admitted so none waits for a thread
+		// in virtual mode every worker gets its own virtual thread instead
+		Executor pool = Executors.newFixedThreadPool(ServerConfig.MAX_CONNECTIONS, new NamedThreadFactory("serverWorker"));
+		if (ServerConfig.MODE == ServerMode.VIRTUAL) {
+			ThreadFactory workerThreads = VirtualThreads.factory("serverWorker");
+			ThreadFactory readerThreads = VirtualThreads.factory("streamReader");
+			ThreadFactory writerThreads = VirtualThreads.factory("streamWriter");
+			if (workerThreads != null && readerThreads != null && writerThreads != null) {
+				pool = task -> workerThreads.newThread(task).start();
+				streamReaderThreads = readerThreads;
+				streamWriterThreads = writerThreads;
+			}
+			else {
+				System.out.println("Virtual threads need Java 21 or later, using platform threads instead");
+			}
+		}
+		
 		ServerSocket listener = null;
 		try {
 			listener = new ServerSocket(port);
 			System.out.println("Server is running...");
 			while (true) {
-				pool.execute(new ServerWorker(listener.accept()));
+				Socket socket = listener.accept();
+				if (!limits.allowConnection(socket.getInetAddress())) {
+					refuse(socket, null);
+					continue;
+				}
+				AdmissionController.Ticket ticket = admission.admit();
+				if (ticket == null) {
+					refuse(socket, AdmissionController.SERVER_FULL);
+					continue;
+				}
+				metrics.connectionsAccepted.increment();
+				pool.execute(new ServerWorker(socket, ticket));
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			events.error(EventLog.Event.SERVER, null, "could not accept connections", e);
 		} finally {
 			if (listener != null && !listener.isClosed()) {
 				try {
 					closeAllSockets();
+					stopCluster();
+					metrics.stop();
+					closeMessageLog();
 					listener.close();
 					System.out.println("Closing server...");
+					events.close();
 				}
 				catch (Exception e) {
-					e.printStackTrace();
+					events.warn(EventLog.Event.SERVER, null, "could not close the server cleanly", e);
 				}
 			}
 		}
 	}
 	
+	// serves all connections from a small set of event loop threads
+	private static void runNio(int port) {
+		try {
+			new NioServer(ServerConfig.EVENT_LOOPS).run(port);
+		} catch (IOException e) {
+			events.error(EventLog.Event.SERVER, null, "could not accept connections", e);
+		} finally {
+			closeAllSockets();
+			stopCluster();
+			metrics.stop();
+			closeMessageLog();
+			System.out.println("Closing server...");
+			events.close();
+		}
+	}
+	
+	// opens the message log if one is configured and fills the chat and room
+	// histories and the mailboxes with the messages logged before the last restart
+	private static void openMessageLog() {
+		if (ServerConfig.LOG_DIR == null) {
+			return;
+		}
+		try {
+			log = MessageLog.open(Paths.get(ServerConfig.LOG_DIR));
+			int[] count = new int[1];
+			log.read(System.currentTimeMillis() - ServerConfig.LOG_REPLAY_MILLIS, record -> {
+				MessageHistory target = record.room.isEmpty() ? history : rooms.history(record.room);
+				target.add(new SharedMessage(record.text));
+				count[0]++;
+			});
+			System.out.println("Loaded " + count[0] + " messages from the message log");
+		} catch (IOException e) {
+			System.out.println("Could not open the message log, history will not be kept");
+			events.warn(EventLog.Event.MESSAGE_LOG, null, "could not open the message log", e);
+		}
+		try {
+			mailboxes.open(Paths.get(ServerConfig.LOG_DIR, "mailboxes"));
+			System.out.println("Loaded " + mailboxes.size() + " private messages from the mailboxes");
+		} catch (IOException e) {
+			System.out.println("Could not open the mailboxes, private messages will not be kept across restarts");
+			events.warn(EventLog.Event.MESSAGE_LOG, null, "could not open the mailboxes", e);
+		}
+	}
+	
+	private static synchronized void closeMessageLog() {
+		mailboxes.close();
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+	}
+	
+	// connects to the other nodes listed in chat.clusterNodes, if this server is one of them
+	private static void startCluster() {
+		if (ServerConfig.CLUSTER_NODE == null) {
+			return;
+		}
+		Map<String, InetSocketAddress> addresses = new HashMap<>();
+		for (String entry : ServerConfig.CLUSTER_NODES.split(",")) {
+			String[] parts = entry.trim().split("[=:]");
+			if (parts.length != 3) {
+				System.out.println("Invalid cluster node " + entry + ", expected id=host:port");
+				continue;
+			}
+			try {
+				addresses.put(parts[0], new InetSocketAddress(parts[1], Integer.parseInt(parts[2])));
+			} catch (IllegalArgumentException e) {
+				System.out.println("Invalid cluster node " + entry + ", expected id=host:port");
+			}
+		}
+		if (!addresses.containsKey(ServerConfig.CLUSTER_NODE)) {
+			System.out.println("chat.clusterNodes does not list " + ServerConfig.CLUSTER_NODE + ", running without a cluster");
+			return;
+		}
+		if (ServerConfig.CLUSTER_SECRET == null || ServerConfig.CLUSTER_SECRET.isEmpty()) {
+			System.out.println("chat.clusterSecret is not set, running without a cluster");
+			return;
+		}
+		try {
+			TcpMeshBus bus = new TcpMeshBus(ServerConfig.CLUSTER_NODE, addresses, ServerConfig.CLUSTER_SECRET);
+			Cluster started = new Cluster(bus, new ServerClusterHost());
+			cluster = started;
+			started.start();
+			System.out.println("Cluster node " + ServerConfig.CLUSTER_NODE + " of " + addresses.size());
+		} catch (IOException e) {
+			cluster = null;
+			System.out.println("Could not start the cluster, running on our own");
+			events.warn(EventLog.Event.CLUSTER, null, "could not start the cluster", e);
+		}
+	}
+	
+	private static synchronized void stopCluster() {
+		if (cluster != null) {
+			cluster.close();
+			cluster = null;
+		}
+	}
+	
+	// closes a connection the server does not take on, answering SERVER_FULL when it is full and
+	// without a word when the connection is over chat.ipConnectRate, as a flood of them should cost little
+	// the answer fits in the empty send buffer of the new socket, so writing it does not block
+	private static void refuse(Socket socket, String reply) {
+		metrics.connectionsRefused.increment();
+		String address = socket.getInetAddress().getHostAddress();
+		try {
+			if (reply != null) {
+				events.info(EventLog.Event.OVERLOAD, null, "the server is full, turned away " + address);
+				socket.getOutputStream().write((reply + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+			else {
+				events.info(EventLog.Event.RATE_LIMIT, null, "refused a connection from " + address);
+			}
+			socket.close();
+		} catch (IOException e) {
+			events.warn(EventLog.Event.CONNECTION_CLOSE, null, null, e);
+		}
+	}
+	
 	// closes all sockets which established a connected with the server
 	private static void closeAllSockets() {
-		for (Socket socket : activeUsers.keySet()) {
+		for (Session user : users.sessions()) {
 			try {
-				socket.close();
+				user.socket().close();
 			} catch (IOException e) {
-				e.printStackTrace();
+				events.warn(EventLog.Event.CONNECTION_CLOSE, user, null, e);
 			}
 		}
 	}
@@ -0,0 +1,171 @@
+package network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpServer;
+
+// Counts what the server does so it can be watched while it runs. Counters are LongAdders, which
+// spread increments from many threads over separate cells instead of contending on one value,
+// and latencies go into LatencyHistograms, so recording is a few atomic adds and never allocates.
+// Everything else, such as the number of users or the messages queued for them, is read when the
+// metrics are asked for. They are served as plain text, one "name value" per line, over HTTP on
+// chat.metricsPort of the loopback address, and shown to the coordinator by !stats.
+// Rates per second are worked out every RATE_SECONDS from the counters on the scheduler thread.
+class ServerMetrics {
+	private static final int RATE_SECONDS = 5;
+
+	public final LongAdder connectionsAccepted = new LongAdder();
+	public final LongAdder connectionsClosed = new LongAdder();
+	// connections closed as soon as they were accepted, by the RateLimits or the AdmissionController
+	public final LongAdder connectionsRefused = new LongAdder();
+	// messages dropped by the RateLimits
+	public final LongAdder rateLimited = new LongAdder();
+	// lines and frames read from clients
+	public final LongAdder messagesRead = new LongAdder();
+	// requests from users who have joined, chat messages and commands
+	public final LongAdder requests = new LongAdder();
+	public final LongAdder broadcasts = new LongAdder();
+	// messages handed to users by broadcasts, to the chat or to a room
+	public final LongAdder deliveries = new LongAdder();
+	public final LongAdder pingsSent = new LongAdder();
+	public final LongAdder evictions = new LongAdder();
+	// connections closed for not finishing the handshake in time
+	public final LongAdder handshakeTimeouts = new LongAdder();
+	// messages dropped or coalesced, and users disconnected, by the SlowConsumerPolicy
+	public final LongAdder slowConsumerDrops = new LongAdder();
+	public final LongAdder slowConsumerDisconnects = new LongAdder();
+	// bytes waiting in the OutboundQueues of all users
+	public final LongAdder outboundBytes = new LongAdder();
+
+	public final LatencyHistogram requestNanos = new LatencyHistogram();
+	public final LatencyHistogram broadcastNanos = new LatencyHistogram();
+	// from sending a PING until the user is next heard from
+	public final LatencyHistogram pingNanos = new LatencyHistogram();
+
+	private final long started = System.currentTimeMillis();
+
+	// per second over the last RATE_SECONDS, only written by the scheduler thread
+	private volatile double requestRate = 0;
+	private volatile double deliveryRate = 0;
+	private long lastRequests = 0;
+	private long lastDeliveries = 0;
+
+	private HttpServer http;
+
+	// starts working out rates, and serving the metrics if chat.metricsPort is set
+	public void start() {
+		ServerContext.scheduler.scheduleAtFixedRate(this::updateRates, RATE_SECONDS, RATE_SECONDS, TimeUnit.SECONDS);
+		if (ServerConfig.METRICS_PORT < 0) {
+			return;
+		}
+		try {
+			http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), ServerConfig.METRICS_PORT), 0);
+			http.createContext("/metrics", exchange -> {
+				byte[] body = String.join("\n", lines()).concat("\n").getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			});
+			http.start();
+			System.out.println("Metrics are served on http://" + InetAddress.getLoopbackAddress().getHostAddress() +
+					":" + ServerConfig.METRICS_PORT + "/metrics");
+		} catch (IOException e) {
+			System.out.println("Could not serve metrics on port " + ServerConfig.METRICS_PORT);
+			ServerContext.events.error(EventLog.Event.SERVER, null, "could not serve metrics", e);
+		}
+	}
+
+	// called after a message has been handed to everyone in the chat or a room
+	public void broadcast(int recipients, long nanos) {
+		broadcasts.increment();
+		deliveries.add(recipients);
+		broadcastNanos.record(nanos);
+	}
+
+	public void stop() {
+		if (http != null) {
+			http.stop(0);
+		}
+	}
+
+	private void updateRates() {
+		long requestsNow = requests.sum();
+		long deliveriesNow = deliveries.sum();
+		requestRate = (requestsNow - lastRequests) / (double) RATE_SECONDS;
+		deliveryRate = (deliveriesNow - lastDeliveries) / (double) RATE_SECONDS;
+		lastRequests = requestsNow;
+		lastDeliveries = deliveriesNow;
+	}
+
+	// every metric as a "name value" line
+	public List<String> lines() {
+		List<String> lines = new ArrayList<>();
+		long accepted = connectionsAccepted.sum();
+		long closed = connectionsClosed.sum();
+		add(lines, "chat_uptime_seconds", (System.currentTimeMillis() - started) / 1000);
+		add(lines, "chat_connections_accepted_total", accepted);
+		add(lines, "chat_connections_open", accepted - closed);
+		add(lines, "chat_connections_refused_total", connectionsRefused.sum());
+		add(lines, "chat_handshakes", ServerContext.admission.handshakes());
+		add(lines, "chat_users", ServerContext.users.size());
+		Cluster cluster = ServerContext.cluster;
+		if (cluster != null) {
+			add(lines, "chat_cluster_remote_users", cluster.remoteUserCount());
+		}
+		add(lines, "chat_rooms", ServerContext.rooms.rooms().size());
+
+		add(lines, "chat_messages_read_total", messagesRead.sum());
+		add(lines, "chat_requests_total", requests.sum());
+		lines.add(String.format("chat_requests_per_second %.1f", requestRate));
+		add(lines, "chat_rate_limited_total", rateLimited.sum());
+		add(lines, "chat_broadcasts_total", broadcasts.sum());
+		add(lines, "chat_deliveries_total", deliveries.sum());
+		lines.add(String.format("chat_deliveries_per_second %.1f", deliveryRate));
+
+		// walks every user, only when asked for
+		long queued = 0;
+		long deepest = 0;
+		for (Session user : ServerContext.users.sessions()) {
+			int size = user.connection.queued();
+			queued += size;
+			deepest = Math.max(deepest, size);
+		}
+		add(lines, "chat_outbound_queued", queued);
+		add(lines, "chat_outbound_queued_max", deepest);
+		add(lines, "chat_outbound_queued_bytes", outboundBytes.sum());
+		add(lines, "chat_slow_consumer_drops_total", slowConsumerDrops.sum());
+		add(lines, "chat_slow_consumer_disconnects_total", slowConsumerDisconnects.sum());
+		add(lines, "chat_search_queued", ServerContext.searcher.getQueue().size());
+
+		add(lines, "chat_pings_sent_total", pingsSent.sum());
+		add(lines, "chat_evictions_total", evictions.sum());
+		add(lines, "chat_handshake_timeouts_total", handshakeTimeouts.sum());
+
+		addHistogram(lines, "chat_request_nanos", requestNanos);
+		addHistogram(lines, "chat_broadcast_nanos", broadcastNanos);
+		addHistogram(lines, "chat_ping_round_trip_nanos", pingNanos);
+		return lines;
+	}
+
+	private static void add(List<String> lines, String name, long value) {
+		lines.add(name + " " + value);
+	}
+
+	private static void addHistogram(List<String> lines, String name, LatencyHistogram histogram) {
+		add(lines, name + "{quantile=\"0.5\"}", histogram.percentile(0.5));
+		add(lines, name + "{quantile=\"0.99\"}", histogram.percentile(0.99));
+		add(lines, name + "{quantile=\"0.999\"}", histogram.percentile(0.999));
+		add(lines, name + "_max", histogram.max());
+		add(lines, name + "_count", histogram.count());
+	}
+}
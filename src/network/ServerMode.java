@@ -0,0 +1,12 @@
+package network;
+
+// This enum class is used to select how the server handles its connections.
+// BLOCKING gives every user a worker thread and a stream reader thread.
+// VIRTUAL works like BLOCKING but runs the worker and stream reader on virtual threads,
+// so the number of users is no longer limited by the size of a platform thread pool.
+// NIO serves all users from a small number of event loop threads using non-blocking channels.
+enum ServerMode {
+	BLOCKING,
+	VIRTUAL,
+	NIO
+}
@@ -0,0 +1,779 @@
+package network;
+
+import java.net.Socket;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Holds the state of one user and implements the chat protocol on top of a Connection.
+// The connection passes every message it reads to the session, which walks the user through
+// registering a name (NAME_ACCEPTED / NAME_TAKEN), waits for READY and then hands requests
+// over to a RequestHandler. Because the session never blocks waiting for input, the same
+// code serves both the thread-per-user ServerWorker and the selector based NioConnection.
+// Framed clients deliver control messages and chat text separately through onControl() and
+// onText(), text protocol clients deliver lines through onLine() which tells them apart.
+// A connection only calls into the session from one thread at a time. Whether the user is still
+// there is checked by the session's Heartbeat, which every message from the user keeps alive.
+// A framed client may ask for its session to outlive its connection, see SessionReplay, in which
+// case the session carries on with a new connection when the client reconnects.
+// In a Cluster a name is only accepted once the node which owns it has agreed. Meanwhile the
+// session is CLAIMING and holds on to anything else the client sends, which is handled once the
+// answer has come in. The client has to get through the handshake in time, see Handshake.
+public class Session {
+
+	private enum State {
+		NAME,
+		CLAIMING,
+		READY,
+		ACTIVE
+	}
+
+	private static final AtomicLong ids = new AtomicLong();
+
+	// identifies the session in the EventLog, names are reused
+	public final long id = ids.incrementAndGet();
+
+	// replaced when the session is resumed on a new connection
+	public volatile Connection connection;
+	public String userName;
+
+	public MessageMode messageMode;
+	// name of the user private messages go to, who may be offline
+	public String privateRecipient;
+	// whether the sender has been told their private messages are being kept
+	private boolean recipientAway = false;
+	public Room channel;
+
+	// names of the rooms the user has joined
+	private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+
+	// position among the candidates of the CoordinatorElection, -1 when not a candidate
+	// only changed while holding the election's lock
+	volatile int memberIndex = -1;
+
+	// volatile because other users' threads check isActive() before sending a private message
+	private volatile State state;
+	private RequestHandler requestHandler;
+	private final RateLimits.UserLimit limit = new RateLimits.UserLimit();
+	// set once the user has been told they are over their limit, until a message gets through again
+	private boolean limited = false;
+	final Heartbeat heartbeat = new Heartbeat(this);
+	private final Handshake handshake = new Handshake(this);
+
+	// set between PING_START and PING_END, which the coordinator of clients from before the
+	// server sent its own pings still sends, so that the names in between are not taken for chat
+	// text. Only names of users in the chat are skipped, any other line ends the list and is
+	// handled as usual, so typing PING_START can never mute a user.
+	private boolean ignoringPingList = false;
+	// set once a text protocol client has said it understands the versioned MembershipFeed
+	private volatile boolean versionedMembers = false;
+	private final AtomicBoolean disconnected = new AtomicBoolean();
+
+	// set while CLAIMING, messages from the client are held until the claim has been answered
+	private volatile boolean holding = false;
+	private final ArrayDeque<String[]> held = new ArrayDeque<>();
+	// guards held, and the end of a claim against the user leaving at the same time
+	private final ReentrantLock claimLock = new ReentrantLock();
+
+	// set once the client has asked to be able to resume the session
+	private volatile SessionReplay replay;
+	// texts received since the session became resumable, counted by the connection's thread and
+	// read by the thread of the connection the session is resumed on
+	private volatile long textsReceived = 0;
+	// set when the user quits, so the session is not kept for them to resume
+	private volatile boolean quitting = false;
+
+	public Session(Connection connection) {
+		this.connection = connection;
+		messageMode = MessageMode.BROADCAST;
+		state = State.NAME;
+		requestHandler = new RequestHandler(this);
+		handshake.awaitName();
+	}
+
+	public Socket socket() {
+		return connection.socket();
+	}
+
+	// writes chat text to the user, numbered and kept if the session can be resumed
+	public void send(String text) {
+		SessionReplay current = replay;
+		if (current != null) {
+			current.send(text);
+		}
+		else {
+			connection.send(text);
+		}
+	}
+
+	public void send(SharedMessage message) {
+		SessionReplay current = replay;
+		if (current != null) {
+			current.send(message);
+		}
+		else if (!connection.isClosed()) {
+			connection.send(message);
+		}
+	}
+
+	public void sendControl(String message) {
+		connection.sendControl(message);
+	}
+
+	// returns whether the user has finished the handshake and can send requests
+	public boolean isActive() {
+		return state == State.ACTIVE;
+	}
+
+	// returns whether the user has asked to leave the chat
+	public boolean hasQuit() {
+		return quitting;
+	}
+
+	// returns whether the client follows the MembershipFeed's numbered changes
+	public boolean followsVersionedMembers() {
+		return versionedMembers || connection.isFramed();
+	}
+
+	// returns whether the user's name has been accepted
+	public boolean isNamed() {
+		return state == State.READY || state == State.ACTIVE;
+	}
+
+	// keeps a message from the client while a claim is waiting for its answer,
+	// returns false if the claim has been answered and the message can be handled now
+	private boolean hold(String kind, String message) {
+		claimLock.lock();
+		try {
+			if (!holding) {
+				return false;
+			}
+			held.add(new String[] { kind, message });
+			return true;
+		} finally {
+			claimLock.unlock();
+		}
+	}
+
+	// handles one line read from a client using the text protocol, where control messages
+	// share the stream with chat text and can only be told apart by what they say
+	public void onLine(String line) {
+		heartbeat.touch();
+		if (holding && hold("line", line)) {
+			return;
+		}
+		handleLine(line);
+	}
+
+	private void handleLine(String line) {
+		if (ignoringPingList) {
+			if (line.equals("PING_END") || ServerContext.users.contains(line)) {
+				ignoringPingList = !line.equals("PING_END");
+				return;
+			}
+			ignoringPingList = false;
+		}
+		if (line.equals("PING") || state == State.READY ||
+				(state == State.ACTIVE && (line.equals("MEMBERS_SUBSCRIBE") || line.equals("MEMBERS_RESYNC") ||
+				line.equals("MEMBERS_VERSIONED"))) ||
+				(line.equals("PING_START") && ServerContext.election.coordinator() == this)) {
+			handleControl(line);
+		}
+		else {
+			handleText(line);
+		}
+	}
+
+	// handles a control message from the client
+	public void onControl(String message) {
+		heartbeat.touch();
+		if (holding && hold("control", message)) {
+			return;
+		}
+		handleControl(message);
+	}
+
+	private void handleControl(String message) {
+		// ping replies may arrive at any point and only need to keep the heartbeat alive
+		if (message.equals("PING")) {
+			return;
+		}
+
+		// sent before READY, so that the list sent to a new coordinator already uses it
+		if (message.equals("MEMBERS_VERSIONED")) {
+			versionedMembers = true;
+		}
+		else if (state == State.READY) {
+			ready(message);
+		}
+		else if (state == State.ACTIVE && message.equals("MEMBERS_SUBSCRIBE")) {
+			ServerContext.members.subscribe(this);
+		}
+		else if (state == State.ACTIVE && message.equals("MEMBERS_RESYNC")) {
+			ServerContext.members.resync(this);
+		}
+		else if (state == State.ACTIVE && message.equals("RESUMABLE")) {
+			makeResumable();
+		}
+		else if (state == State.NAME && message.startsWith("RESUME ")) {
+			resume(message);
+		}
+		else if (state == State.ACTIVE && message.equals("PING_START") && ServerContext.election.coordinator() == this) {
+			ignoringPingList = true;
+		}
+	}
+
+	// handles chat text from the client, which is the user's name until it has been accepted
+	public void onText(String text) {
+		heartbeat.touch();
+		if (holding && hold("text", text)) {
+			return;
+		}
+		handleText(text);
+	}
+
+	private void handleText(String text) {
+		switch (state) {
+		case NAME:
+			registerName(text);
+			break;
+		case READY:
+			ready(text);
+			break;
+		case ACTIVE:
+			if (replay != null) {
+				textsReceived++;
+			}
+			if (!ServerContext.limits.allowMessage(this, limit, text)) {
+				overLimit();
+				break;
+			}
+			limited = false;
+			requestHandler.handleRequest(text);
+			break;
+		default:
+			break;
+		}
+	}
+
+	// drops a message over the user's rate limit, telling them the first time
+	private void overLimit() {
+		ServerContext.metrics.rateLimited.increment();
+		if (!limited) {
+			limited = true;
+			ServerContext.events.info(EventLog.Event.RATE_LIMIT, this, "sending too fast, messages are dropped");
+			send("You are sending messages too quickly, some of them were not sent!");
+		}
+	}
+
+	// check if the name input by the user is unique
+	// responds with NAME_TAKEN if name is already used
+	private void registerName(String name) {
+		// the name is reserved in the same step as it is checked, so two users
+		// sending the same name at once cannot both be accepted
+		userName = name;
+		if (!ServerContext.users.register(name, this)) {
+			userName = null;
+			sendControl("NAME_TAKEN");
+			return;
+		}
+
+		Cluster cluster = ServerContext.cluster;
+		if (cluster == null) {
+			accept();
+			return;
+		}
+		if (cluster.nodeOf(name) != null) {
+			ServerContext.users.remove(this);
+			userName = null;
+			sendControl("NAME_TAKEN");
+			return;
+		}
+		// the owner of the name may answer on this thread or later on the cluster's
+		holding = true;
+		state = State.CLAIMING;
+		cluster.claim(name, this::claimed);
+	}
+
+	// if successful, respond with NAME_ACCEPTED and announce the user to everyone else
+	private void accept() {
+		ServerContext.members.joined(userName);
+		broadcast(userName + " has joined the chat!", this);
+		sendControl("NAME_ACCEPTED");
+		state = State.READY;
+		handshake.awaitReady();
+
+		Cluster cluster = ServerContext.cluster;
+		if (cluster != null) {
+			cluster.joined(this);
+		}
+	}
+
+	// called with the answer of the name's owner, then handles what the client sent meanwhile
+	private void claimed(boolean granted) {
+		claimLock.lock();
+		try {
+			if (state != State.CLAIMING) {
+				return;
+			}
+			if (disconnected.get()) {
+				// left while waiting, leave() has not announced the user
+				state = State.NAME;
+				if (granted) {
+					ServerContext.cluster.release(userName);
+				}
+			}
+			else if (granted) {
+				accept();
+			}
+			else {
+				ServerContext.users.remove(this);
+				userName = null;
+				state = State.NAME;
+				sendControl("NAME_TAKEN");
+			}
+
+			// a held name may start another claim, which then handles the rest
+			String[] message;
+			while (state != State.CLAIMING && (message = held.poll()) != null) {
+				if (message[0].equals("line")) {
+					handleLine(message[1]);
+				}
+				else if (message[0].equals("control")) {
+					handleControl(message[1]);
+				}
+				else {
+					handleText(message[1]);
+				}
+			}
+			if (state != State.CLAIMING) {
+				holding = false;
+			}
+		} finally {
+			claimLock.unlock();
+		}
+	}
+
+	// listen for READY message, then welcome the user
+	private void ready(String line) {
+		if (!line.equals("READY")) {
+			ServerContext.events.warn(EventLog.Event.CONNECTION_LOST, this, "did not send READY", null);
+			disconnect();
+			return;
+		}
+		state = State.ACTIVE;
+		handshake.done();
+		connection.joined();
+		heartbeat.start();
+
+		// this client becomes the coordinator if there isn't one yet,
+		// the coordinator is always sent the list of users
+		if (ServerContext.election.join(this)) {
+			ServerContext.members.subscribe(this);
+			Cluster cluster = ServerContext.cluster;
+			if (cluster != null) {
+				cluster.coordinatorChanged();
+			}
+		}
+
+		// messages to the user upon joining the chat
+		// also informs users of custom commands
+		printCommands();
+		printMessageMode();
+		send("\nWelcome to the chat!");
+		printUserCountMessage();
+		printCoordinatorMessage();
+		printHistory(ServerContext.history, ServerConfig.HISTORY_REPLAY);
+		ServerContext.mailboxes.deliver(this);
+	}
+
+	// issues the client a token it can resume the session with, see SessionReplay
+	private void makeResumable() {
+		if (!connection.isFramed()) {
+			return;
+		}
+		if (replay == null) {
+			replay = new SessionReplay(this);
+			ServerContext.users.addToken(replay.token, this);
+			if (disconnected.get()) {
+				// left at the same time, leave() may have missed the token
+				replay.end();
+			}
+		}
+		sendControl("SESSION_TOKEN " + replay.token);
+	}
+
+	// handles RESUME <token> <last sequence number> sent instead of a name on a new connection,
+	// this session is then dropped and the connection carries on with the one being resumed
+	private void resume(String message) {
+		String[] parts = message.split(" ");
+		Session previous = parts.length == 3 ? ServerContext.users.getByToken(parts[1]) : null;
+		long lastSeen = -1;
+		try {
+			lastSeen = parts.length == 3 ? Long.parseLong(parts[2]) : -1;
+		} catch (NumberFormatException e) {
+			previous = null;
+		}
+		if (previous == null || !previous.resumeOn(connection, lastSeen)) {
+			sendControl("RESUME_FAILED");
+			return;
+		}
+		handshake.done();
+		connection.joined();
+	}
+
+	// carries on the session on a new connection, returns false if it can no longer be resumed
+	private boolean resumeOn(Connection next, long lastSeen) {
+		Connection previous = connection;
+		if (!replay.resume(next, lastSeen, textsReceived)) {
+			return false;
+		}
+		next.setSession(this);
+		ServerContext.users.rebind(this, previous);
+
+		// the old connection may not have noticed it is broken yet
+		previous.abort();
+		ServerContext.mailboxes.deliver(this);
+		return true;
+	}
+
+	// closes the connection and removes the user from the chat
+	public void disconnect() {
+		quitting = true;
+		connection.close();
+		onDisconnect(connection);
+	}
+
+	// disconnects a user who has stopped answering pings or not finished the handshake in time,
+	// without waiting to write anything still queued for them
+	public void evict() {
+		Connection current = connection;
+		current.abort();
+		onDisconnect(current);
+	}
+
+	// called once a connection of this session has been closed, removes the user from the chat
+	// and selects a new coordinator if required, unless the session waits to be resumed
+	public void onDisconnect(Connection closed) {
+		if (closed != connection) {
+			// a connection the session has since been resumed on
+			return;
+		}
+		connectionLost(closed);
+	}
+
+	// keeps a resumable session for its client to come back, otherwise removes the user
+	// returns true if the user has left
+	private boolean connectionLost(Connection closed) {
+		SessionReplay current = replay;
+		if (current != null && !quitting && current.detach(closed)) {
+			return false;
+		}
+		return leave();
+	}
+
+	// called on the timer thread once a resumable session has waited for its client for too long
+	void onResumeExpired() {
+		leave();
+	}
+
+	// removes this user from the registry and announces it, returns false if already done
+	private boolean leave() {
+		if (!disconnected.compareAndSet(false, true)) {
+			return false;
+		}
+		heartbeat.stop();
+		handshake.done();
+		SessionReplay current = replay;
+		if (current != null) {
+			current.end();
+		}
+
+		ServerContext.members.unsubscribe(this);
+		for (String room : rooms) {
+			leaveRoom(room);
+		}
+		Cluster cluster = ServerContext.cluster;
+		if (ServerContext.users.remove(this) && !isClaiming()) {
+			ServerContext.members.left(userName);
+			broadcast(userName + " has left the chat!");
+			if (cluster != null) {
+				cluster.left(userName);
+			}
+		}
+
+		// only the user whose leaving changed the coordinator announces the new one,
+		// in a cluster the cluster's coordinator is announced if this node's change affects it
+		Session newCoordinator = ServerContext.election.leave(this);
+		if (newCoordinator != null) {
+			ServerContext.members.subscribe(newCoordinator);
+			if (cluster == null) {
+				broadcast("Coordinator changed. The new coordinator is " + newCoordinator.userName);
+			}
+		}
+		if (cluster != null && (newCoordinator != null || ServerContext.election.coordinator() == null)) {
+			cluster.coordinatorChanged();
+		}
+		return true;
+	}
+
+	// whether the user's name still waits for the cluster, in which case claimed() deals with it
+	private boolean isClaiming() {
+		claimLock.lock();
+		try {
+			return state == State.CLAIMING;
+		} finally {
+			claimLock.unlock();
+		}
+	}
+
+	// adds the user to a room and makes it the target of their messages
+	public void joinRoom(String name) {
+		Room room = ServerContext.rooms.join(name, this);
+		if (room == null) {
+			send("There are too many rooms, " + name + " cannot be created right now!");
+			return;
+		}
+		if (rooms.add(name)) {
+			room.broadcast(userName + " has joined " + name + "!");
+		}
+		if (disconnected.get()) {
+			// left the chat at the same time, leave() may have missed this room
+			leaveRoom(name);
+			return;
+		}
+
+		channel = room;
+		messageMode = MessageMode.CHANNEL;
+		printMessageMode();
+		send("Number of users in " + name + ": " + room.size());
+		printHistory(room.history, ServerConfig.HISTORY_REPLAY);
+	}
+
+	// removes the user from a room, returns false if they were not in it
+	public boolean leaveRoom(String name) {
+		if (!rooms.remove(name) || !ServerContext.rooms.leave(name, this)) {
+			return false;
+		}
+
+		Room room = ServerContext.rooms.get(name);
+		if (room != null) {
+			room.broadcast(userName + " has left " + name + "!");
+		}
+		if (channel != null && channel.name.equals(name)) {
+			channel = null;
+			messageMode = MessageMode.BROADCAST;
+		}
+		return true;
+	}
+
+	// safety net for a user whose connection has closed without their session being told, every
+	// session removes itself when its connection closes so this only runs now and then on the scheduler
+	static void removeClosedUsers() {
+		for (Session user : ServerContext.users.sessions()) {
+			if (user.connection.isClosed()) {
+				user.connectionLost(user.connection);
+			}
+		}
+	}
+
+	// broadcast a message to all active users
+	public void broadcast(String message) {
+		broadcast(message, null);
+	}
+
+	// broadcast a message to all active users except the given one
+	// the message is encoded once and the same bytes are queued for every user
+	private void broadcast(String message, Session except) {
+		broadcast(new SharedMessage(message), except);
+	}
+
+	public void broadcast(SharedMessage shared) {
+		broadcast(shared, null);
+	}
+
+	private void broadcast(SharedMessage shared, Session except) {
+		long start = System.nanoTime();
+		int recipients = 0;
+		for (Session user : ServerContext.users.sessions()) {
+			// users still joining read their handshake replies and must not get chat lines in between
+			if (user != except && user.isActive()) {
+				user.send(shared);
+				recipients++;
+			}
+		}
+		ServerContext.metrics.broadcast(recipients, System.nanoTime() - start);
+	}
+
+	public void setPrivateRecipient(String name) {
+		privateRecipient = name;
+		recipientAway = false;
+	}
+
+	// marks the sender as already told that their private messages are being kept
+	public void setRecipientAway() {
+		recipientAway = true;
+	}
+
+	// sends a private message to current privateRecipient, or keeps it for them if they are offline
+	public void privateMessage(String message) {
+		if (privateRecipient == null || privateRecipient.equals(userName)) {
+			return;
+		}
+		switch (ServerContext.mailboxes.send(privateRecipient, message)) {
+		case SENT:
+			send(message);
+			recipientAway = false;
+			break;
+		case KEPT:
+			send(message);
+			// only mentioned once, not after every message
+			if (!recipientAway) {
+				send(privateRecipient + " is offline, they will receive your messages when they return.");
+				recipientAway = true;
+			}
+			break;
+		case REFUSED:
+			send(privateRecipient + " has too many unread private messages, your message was not kept.");
+			break;
+		default:
+			break;
+		}
+	}
+
+	// prints a message to the user and displays all the commands available for them to use in the chat
+	public void printCommands() {
+		send("\n");
+		send("======= CUSTOM COMMANDS =======");
+		send("!commands / !help -> View this message again");
+		send("!coordinator -> Views the current coordinator");
+		send("!online -> Views details of current users");
+		send("!quit -> Quits the chat");
+		send("!broadcast -> Switch to broadcast mode");
+		send("!private [USERNAME] -> Switch to private message mode to specified user");
+		send("!join #ROOM -> Join a room and switch to sending messages to it");
+		send("!leave #ROOM -> Leave a room");
+		send("!history [N] -> View the last N messages sent to the current room or the chat");
+		send("!search WORDS -> Find recent messages in the current room or the chat containing all of WORDS");
+		send("!stats -> View the server's statistics (coordinator only)");
+		send("\n");
+	}
+
+	// prints a formatted string containing the name of the current session coordinator
+	// in a cluster this is the cluster's coordinator, who may be on another node
+	public void printCoordinatorMessage() {
+		Session coordinator = ServerContext.election.coordinator();
+		Cluster cluster = ServerContext.cluster;
+		if (cluster != null) {
+			String name = cluster.coordinator();
+			Cluster.RemoteUser remote = name == null ? null : cluster.remoteUser(name);
+			if (remote != null) {
+				send("The current coordinator is: " + name + ". IP: " + remote.address +
+						"  PORT: " + remote.port + "  NODE: " + remote.node);
+				return;
+			}
+			coordinator = name == null ? null : ServerContext.users.get(name);
+		}
+		if (coordinator == null) {
+			send("There is no coordinator at the moment.");
+			return;
+		}
+		send("The current coordinator is: " + coordinator.userName +
+				". IP: " + coordinator.socket().getInetAddress().getHostAddress() +
+				"  PORT: " + coordinator.socket().getLocalPort());
+	}
+
+	// replays up to count of the most recent messages from history
+	public void printHistory(MessageHistory history, int count) {
+		if (count <= 0 || history.size() == 0) {
+			return;
+		}
+		send("=== Recent messages ===");
+		history.replay(this, count);
+		send("=== End of recent messages ===");
+	}
+
+	// prints a formatted string containing the number of active users
+	public void printUserCountMessage() {
+		Cluster cluster = ServerContext.cluster;
+		int remote = cluster == null ? 0 : cluster.remoteUserCount();
+		send("Number of users in chat: " + (ServerContext.users.size() + remote));
+	}
+
+	// prints a formatted string containing the current message mode
+	public void printMessageMode() {
+		if (messageMode == MessageMode.BROADCAST) {
+			send("=== Switched to broadcast mode! ===");
+		}
+		else if (messageMode == MessageMode.CHANNEL) {
+			send("=== Switched to room " + channel.name + "! ===");
+		}
+		else {
+			send("=== Switched to private message mode! ===");
+			send("=== Current private recipient: " + privateRecipient + " ===");
+		}
+	}
+
+	// prints a formatted string containing the details of all active users
+	// print format:
+	//   IP               |  Port   |  Name
+	//   127.127.127.127  |  65656  |  James
+	//   87.126.10.2      |  6563   |  Rachel
+	//   17.17.1.107      |  5820   |  Steve
+	// etc...
+	// users on other nodes of a cluster are listed after those on this one, with their node
+	public void printUserDetailsMessage() {
+		send("  IP               |  Port   |  Name");
+
+		Cluster cluster = ServerContext.cluster;
+		Session coordinator = ServerContext.election.coordinator();
+		String clusterCoordinator = cluster == null ? null : cluster.coordinator();
+		for (Session user : ServerContext.users.sessions()) {
+			String ip = user.socket().getLocalAddress().getHostAddress();
+			String port = String.valueOf(user.socket().getLocalPort());
+			String name = user.userName;
+
+			if (cluster == null ? user == coordinator : user.userName != null && user.userName.equals(clusterCoordinator)) {
+				name += " (coordinator)";
+			}
+			printUserDetails(ip, port, name);
+		}
+		if (cluster == null) {
+			return;
+		}
+		for (Cluster.RemoteUser user : cluster.remoteUsers()) {
+			String name = user.name + " (node " + user.node + ")";
+			if (user.name.equals(clusterCoordinator)) {
+				name += " (coordinator)";
+			}
+			printUserDetails(user.address, user.port, name);
+		}
+	}
+
+	private void printUserDetails(String ip, String port, String name) {
+		String s = "  " + ip;
+		for (int i = ip.length(); i < 15; i++) {
+			s += " ";
+		}
+		s += "  |  " + port;
+		for (int i = port.length(); i < 5; i++) {
+			s += " ";
+		}
+		s += "  |  " + name;
+
+		send(s);
+	}
+
+	// returns a formatted timestamp string used at the start of user messages
+	public static String getCurrentTimestamp() {
+		LocalTime currentTime = LocalTime.now();
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss");
+		return "[" + currentTime.format(formatter) + "] ";
+	}
+
+}
@@ -0,0 +1,71 @@
+package network;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Index of the users currently in the chat, by connection and by name, and of the sessions
+// which can be resumed, by token.
+// Names are reserved atomically with putIfAbsent, so two users racing for the same name can
+// never both be accepted, and looking a user up by name no longer scans every entry. The maps
+// are concurrent, so broadcasting while users join and leave is safe: iteration sees every user
+// who was present for the whole broadcast and never throws ConcurrentModificationException.
+class SessionRegistry {
+	private final ConcurrentHashMap<Connection, Session> byConnection = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Session> byName = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Session> byToken = new ConcurrentHashMap<>();
+
+	// reserves name for the session, returns false if another user already has it
+	public boolean register(String name, Session session) {
+		if (byName.putIfAbsent(name, session) != null) {
+			return false;
+		}
+		byConnection.put(session.connection, session);
+		return true;
+	}
+
+	// removes the session, returns false if it was not registered
+	public boolean remove(Session session) {
+		byConnection.remove(session.connection, session);
+		return session.userName != null && byName.remove(session.userName, session);
+	}
+
+	// moves a resumed session from the connection it had to its current one
+	public void rebind(Session session, Connection previous) {
+		byConnection.remove(previous, session);
+		byConnection.put(session.connection, session);
+	}
+
+	public void addToken(String token, Session session) {
+		byToken.put(token, session);
+	}
+
+	public void removeToken(String token, Session session) {
+		byToken.remove(token, session);
+	}
+
+	// the session the token was issued to, or null if it can no longer be resumed
+	public Session getByToken(String token) {
+		return byToken.get(token);
+	}
+
+	public Session get(String name) {
+		return byName.get(name);
+	}
+
+	public Session get(Connection connection) {
+		return byConnection.get(connection);
+	}
+
+	public boolean contains(String name) {
+		return byName.containsKey(name);
+	}
+
+	// live view of every registered session, safe to iterate while users join and leave
+	public Collection<Session> sessions() {
+		return byConnection.values();
+	}
+
+	public int size() {
+		return byName.size();
+	}
+}
@@ -0,0 +1,165 @@
+package network;
+
+import java.security.SecureRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lets a framed client whose connection drops pick up its session again instead of leaving and
+// joining the chat, which saves everyone else a left / joined message and saves the client the
+// messages it would have missed.
+// A client asks for this with the control message RESUMABLE once it has joined, and is sent
+//   SESSION_TOKEN <token>
+// From then on every chat text frame sent to it is preceded by a SEQ frame carrying the text's
+// sequence number, and the last chat.resumeWindow texts are kept. When the connection is lost
+// the session stays in the chat for chat.resumeGraceMillis. A client which reconnects within
+// that time sends, as its first control message on the new connection,
+//   RESUME <token> <last sequence number it received>
+// and is answered with
+//   RESUME_OK <latest sequence number> <number of texts received from the client>
+// followed by the texts it missed, or RESUME_FAILED if the session has ended, in which case it
+// can join with a name as usual. Texts the client sent into the broken connection never arrived,
+// the count of texts received since RESUMABLE lets the client send those again.
+// Numbering, keeping and writing a text happen under one lock, as does switching to the new
+// connection, so replayed texts and new ones reach the client in order and none fall in between.
+class SessionReplay {
+	private static final SecureRandom random = new SecureRandom();
+
+	public final String token;
+	private final Session session;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// the last texts sent, each either a String or a SharedMessage, in the slot of its sequence number
+	private final Object[] messages;
+	private final int mask;
+	// sequence number of the last text sent
+	private long sequence = 0;
+
+	private boolean detached = false;
+	private boolean ended = false;
+	private TimerWheel.Timeout grace;
+
+	public SessionReplay(Session session) {
+		this.session = session;
+		messages = new Object[Integer.highestOneBit(Math.max(ServerConfig.RESUME_WINDOW, 2) - 1) << 1];
+		mask = messages.length - 1;
+
+		byte[] bytes = new byte[16];
+		random.nextBytes(bytes);
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		token = hex.toString();
+	}
+
+	public void send(String text) {
+		lock.lock();
+		try {
+			long seq = ++sequence;
+			messages[(int) (seq & mask)] = text;
+			if (!detached) {
+				session.connection.send(seq, text);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void send(SharedMessage message) {
+		lock.lock();
+		try {
+			long seq = ++sequence;
+			messages[(int) (seq & mask)] = message;
+			if (!detached) {
+				session.connection.send(seq, message);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// called when a connection is lost, keeps the session for the grace period unless it has
+	// already moved on to another connection, returns false if the session has ended and the
+	// user should leave
+	public boolean detach(Connection lost) {
+		lock.lock();
+		try {
+			if (ended) {
+				return false;
+			}
+			if (!detached && session.connection == lost) {
+				detached = true;
+				session.heartbeat.stop();
+				grace = ServerContext.timer.schedule(this::expire, ServerConfig.RESUME_GRACE_MILLIS);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// continues the session on a new connection, writing every kept text after lastSeen to it
+	// returns false if the session has ended
+	public boolean resume(Connection connection, long lastSeen, long received) {
+		lock.lock();
+		try {
+			if (ended) {
+				return false;
+			}
+			if (grace != null) {
+				grace.cancel();
+				grace = null;
+			}
+			detached = false;
+			session.connection = connection;
+			session.heartbeat.start();
+
+			connection.sendControl("RESUME_OK " + sequence + " " + received);
+			long first = Math.max(Math.min(lastSeen, sequence), 0) + 1;
+			long oldest = Math.max(sequence - messages.length + 1, 1);
+			if (first < oldest) {
+				connection.send("=== " + (oldest - first) + " messages were missed while reconnecting ===");
+				first = oldest;
+			}
+			for (long seq = first; seq <= sequence; seq++) {
+				Object message = messages[(int) (seq & mask)];
+				if (message instanceof SharedMessage) {
+					connection.send(seq, (SharedMessage) message);
+				}
+				else {
+					connection.send(seq, (String) message);
+				}
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// stops the session from being resumed, once the user has left the chat
+	public void end() {
+		lock.lock();
+		try {
+			ended = true;
+			if (grace != null) {
+				grace.cancel();
+				grace = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+		ServerContext.users.removeToken(token, session);
+	}
+
+	// runs on the timer thread when the client has not come back in time
+	private void expire() {
+		lock.lock();
+		try {
+			if (!detached || ended) {
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		session.onResumeExpired();
+	}
+}
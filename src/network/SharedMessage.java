@@ -0,0 +1,50 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A chat message sent to many users. It is encoded at most once for each wire protocol, into a
+// read-only buffer which every recipient's connection queues a duplicate() of, so a recipient
+// only costs a small view object rather than its own copy of the bytes. In nio mode the buffers
+// are direct, so the kernel copies straight from them without the JDK staging them through a
+// temporary buffer.
+public class SharedMessage {
+	public final String text;
+
+	// encodings are created on first use, racing threads may both encode but get equal bytes
+	private volatile ByteBuffer line;
+	private volatile ByteBuffer frame;
+
+	public SharedMessage(String text) {
+		this.text = text;
+	}
+
+	// the message as a \n terminated line of the text protocol
+	public ByteBuffer line() {
+		ByteBuffer encoded = line;
+		if (encoded == null) {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			encoded = allocate(bytes.length + 1).put(bytes).put((byte) '\n');
+			line = encoded = encoded.flip().asReadOnlyBuffer();
+		}
+		return encoded;
+	}
+
+	// the message as a TEXT frame of the framed protocol
+	public ByteBuffer frame() {
+		ByteBuffer encoded = frame;
+		if (encoded == null) {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			encoded = allocate(FrameCodec.HEADER_LENGTH + bytes.length)
+					.putInt(bytes.length + 1).put(Frame.TEXT).put(bytes);
+			frame = encoded = encoded.flip().asReadOnlyBuffer();
+		}
+		return encoded;
+	}
+
+	private static ByteBuffer allocate(int capacity) {
+		return ServerConfig.MODE == ServerMode.NIO
+				? ByteBuffer.allocateDirect(capacity)
+				: ByteBuffer.allocate(capacity);
+	}
+}
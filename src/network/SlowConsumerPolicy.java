@@ -0,0 +1,12 @@
+package network;
+
+// This enum class is used to decide what happens when a user's outbound queue is full because
+// they are reading messages more slowly than the chat produces them.
+// DROP discards the new message, the user misses it.
+// DISCONNECT closes the user's connection straight away.
+// COALESCE discards the oldest queued messages to make room and tells the user how many were skipped.
+enum SlowConsumerPolicy {
+	DROP,
+	DISCONNECT,
+	COALESCE
+}
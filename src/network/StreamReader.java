@@ -1,29 +1,60 @@
 package network;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+
 // this class runs on its own thread and constantly reads the input stream
-// any messages are passed through to messageQueue
+// any messages are passed through to the worker's message queue, reading pauses while it is full
 class StreamReader implements Runnable {
 	ServerWorker serverWorker;
-	
+
 	public StreamReader(ServerWorker serverWorker) {
 		this.serverWorker = serverWorker;
 	}
-	
-	// reads messages from input stream and pushes it to messageQueue
-	private void readStream() {
-		while (!serverWorker.socket.isClosed() && serverWorker.serverIn.hasNextLine()) {
-			String s = serverWorker.serverIn.nextLine();
-			if (s.equals("PING")) {
-				ServerWorker.pingResponders.put(serverWorker.userName, true);
-			}
-			else {						
-				serverWorker.messageQueue.add(s); 
+
+	// reads lines from input stream and pushes them to the message queue
+	// if the client asks for frames with its first line, carries on reading frames instead
+	private void readStream() throws InterruptedException, IOException {
+		boolean firstLine = true;
+		String s;
+		while (!serverWorker.socket.isClosed() && (s = serverWorker.serverIn.readLine()) != null) {
+			if (firstLine && s.equals(FrameCodec.HELLO)) {
+				serverWorker.useFrames();
+				readFrames();
+				return;
 			}
+			firstLine = false;
+			ServerContext.metrics.messagesRead.increment();
+			serverWorker.deliver(new Frame(Frame.LINE, s));
 		}
 	}
-	
+
+	// reads frames from input stream and pushes them to the message queue
+	// frames are read through the LineReader, which already buffers and may hold the first of them
+	private void readFrames() throws InterruptedException, IOException {
+		DataInputStream in = new DataInputStream(serverWorker.serverIn);
+		Frame frame;
+		while (!serverWorker.socket.isClosed() && (frame = FrameCodec.read(in, ServerConfig.MAX_FRAME)) != null) {
+			ServerContext.metrics.messagesRead.increment();
+			serverWorker.deliver(frame);
+		}
+	}
+
 	@Override
 	public void run() {
-		readStream();
+		try {
+			readStream();
+		} catch (IOException e) {
+			// broken socket, a line that is too long or a malformed frame, either way the session ends
+			// a socket the server closed itself, after a quit or an eviction, was not lost
+			if (!serverWorker.socket.isClosed() && !serverWorker.session.hasQuit()) {
+				ServerContext.events.info(EventLog.Event.CONNECTION_LOST, serverWorker.session, e.toString());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// the client has gone away, wake the worker so it can end the session
+		serverWorker.endOfStream();
 	}
 }
@@ -0,0 +1,51 @@
+package network;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// this class runs on its own thread and writes the messages queued for one user to their socket
+// the stream is only flushed once the queue has been emptied, so a burst of messages goes out together
+class StreamWriter implements Runnable {
+	ServerWorker serverWorker;
+
+	public StreamWriter(ServerWorker serverWorker) {
+		this.serverWorker = serverWorker;
+	}
+
+	// takes messages off the outbound queue until it is closed and empty
+	private void writeStream() throws IOException, InterruptedException {
+		OutputStream out = new BufferedOutputStream(serverWorker.serverOut);
+		byte[] scratch = new byte[8192];
+
+		ByteBuffer message;
+		while ((message = serverWorker.outbound.take()) != null) {
+			if (message.hasArray()) {
+				out.write(message.array(), message.arrayOffset() + message.position(), message.remaining());
+			}
+			while (message.hasRemaining() && !message.hasArray()) {
+				int length = Math.min(message.remaining(), scratch.length);
+				message.get(scratch, 0, length);
+				out.write(scratch, 0, length);
+			}
+			if (serverWorker.outbound.isEmpty()) {
+				out.flush();
+			}
+		}
+		out.flush();
+	}
+
+	@Override
+	public void run() {
+		try {
+			writeStream();
+		} catch (IOException e) {
+			// the socket is broken, the stream reader ends the session
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		serverWorker.closeNow();
+	}
+}
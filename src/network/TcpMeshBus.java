@@ -0,0 +1,336 @@
+package network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// ClusterBus over one TCP connection between every pair of nodes.
+// Every node listens on its own cluster address and dials the nodes whose id sorts before its
+// own, so each pair ends up with exactly one connection. A dialing node sends its id first.
+// Each connection has a reader thread passing messages to the listener and a writer thread
+// taking them off a bounded queue, so publishing never waits on a slow node. A node whose queue
+// fills up is disconnected, and lost connections are dialed again every RETRY_MILLIS.
+// Every node listens only on the address it is listed with, and only takes a connection once
+// the other side has proved it knows chat.clusterSecret: the accepting node sends a random
+// nonce, the dialing node answers with its id, a nonce of its own and an HMAC of both nonces and
+// both ids, and the accepting node answers with an HMAC the other way round, so each side knows
+// the other is a node of the cluster and neither answer can be replayed. Each handshake runs on
+// a thread of its own, so a connection which never answers cannot hold up the other nodes.
+// Messages after the handshake are neither signed nor encrypted, the cluster's links are meant
+// to run on a network only the nodes can reach.
+class TcpMeshBus implements ClusterBus {
+	private static final long RETRY_MILLIS = 1000;
+	private static final int NONCE_LENGTH = 16;
+	private static final int MAC_LENGTH = 32;
+	// connections which may be in their handshake at once, any more are closed straight away
+	private static final int MAX_HANDSHAKES = 16;
+
+	private final String node;
+	// cluster address of every node, this one included
+	private final Map<String, InetSocketAddress> addresses;
+	private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+	private final NamedThreadFactory threads = new NamedThreadFactory("cluster");
+	private final SecretKeySpec secret;
+	private final SecureRandom random = new SecureRandom();
+	private final Semaphore handshakes = new Semaphore(MAX_HANDSHAKES);
+
+	private volatile Listener listener;
+	private volatile boolean closed = false;
+	private ServerSocket server;
+
+	// one connection to another node
+	private class Peer {
+		final String node;
+		final Socket socket;
+		final BlockingQueue<ClusterMessage> outbound = new ArrayBlockingQueue<>(ServerConfig.CLUSTER_QUEUE);
+		final AtomicBoolean down = new AtomicBoolean();
+
+		Peer(String node, Socket socket) {
+			this.node = node;
+			this.socket = socket;
+		}
+
+		void start() {
+			threads.newThread(this::write).start();
+			threads.newThread(this::read).start();
+		}
+
+		void send(ClusterMessage message) {
+			if (!outbound.offer(message)) {
+				ServerContext.events.warn(EventLog.Event.CLUSTER, null, "node " + node + " is not keeping up, disconnecting it", null);
+				close();
+			}
+		}
+
+		private void write() {
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				while (true) {
+					ClusterMessage message = outbound.take();
+					if (down.get()) {
+						break;
+					}
+					message.write(out);
+					if (outbound.isEmpty()) {
+						out.flush();
+					}
+				}
+			} catch (IOException e) {
+				// connection lost, the reader reports it
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			close();
+		}
+
+		private void read() {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				while (!down.get()) {
+					listener.onMessage(node, ClusterMessage.read(in, ClusterMessage.MAX_LENGTH));
+				}
+			} catch (IOException e) {
+				// connection lost
+			}
+			close();
+		}
+
+		void close() {
+			if (!down.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+				ServerContext.events.warn(EventLog.Event.CLUSTER, null, "could not close the connection to " + node, e);
+			}
+			// wake the writer
+			outbound.clear();
+			outbound.offer(new ClusterMessage("CLOSED"));
+			if (peers.remove(node, this)) {
+				listener.onNodeDown(node);
+			}
+		}
+	}
+
+	public TcpMeshBus(String node, Map<String, InetSocketAddress> addresses, String secret) {
+		this.node = node;
+		this.addresses = addresses;
+		this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+	}
+
+	@Override
+	public String node() {
+		return node;
+	}
+
+	@Override
+	public void start(Listener listener) throws IOException {
+		this.listener = listener;
+		server = new ServerSocket();
+		server.bind(addresses.get(node));
+		threads.newThread(this::accept).start();
+		for (String other : addresses.keySet()) {
+			if (other.compareTo(node) < 0) {
+				threads.newThread(() -> dial(other)).start();
+			}
+		}
+	}
+
+	// takes connections from the nodes which sort after this one
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket socket = server.accept();
+				if (!handshakes.tryAcquire()) {
+					socket.close();
+					continue;
+				}
+				threads.newThread(() -> {
+					try {
+						welcome(socket);
+					} finally {
+						handshakes.release();
+					}
+				}).start();
+			} catch (IOException e) {
+				if (!closed) {
+					ServerContext.events.warn(EventLog.Event.CLUSTER, null, "could not accept a node", e);
+				}
+			}
+		}
+	}
+
+	// the accepting side of the handshake
+	private void welcome(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout((int) RETRY_MILLIS);
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			byte[] ours = nonce();
+			out.write(ours);
+			out.flush();
+
+			String other = in.readUTF();
+			byte[] theirs = new byte[NONCE_LENGTH];
+			in.readFully(theirs);
+			byte[] proof = new byte[MAC_LENGTH];
+			in.readFully(proof);
+			if (!addresses.containsKey(other) || other.compareTo(node) <= 0 ||
+					!MessageDigest.isEqual(proof, mac("dial", other, node, ours, theirs))) {
+				ServerContext.events.warn(EventLog.Event.CLUSTER, null,
+						"refused a connection from " + socket.getInetAddress() + " which is not a node of the cluster", null);
+				socket.close();
+				return;
+			}
+			out.write(mac("accept", node, other, theirs, ours));
+			out.flush();
+			socket.setSoTimeout(0);
+			connected(other, socket);
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException closing) {
+				// already broken
+			}
+		}
+	}
+
+	// keeps a connection open to a node which sorts before this one
+	private void dial(String other) {
+		while (!closed) {
+			if (!peers.containsKey(other)) {
+				try {
+					Socket socket = new Socket();
+					socket.connect(addresses.get(other), (int) RETRY_MILLIS);
+					if (introduce(other, socket)) {
+						connected(other, socket);
+					}
+					else {
+						socket.close();
+					}
+				} catch (IOException e) {
+					// not up yet, try again
+				}
+			}
+			try {
+				Thread.sleep(RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	// the dialing side of the handshake, returns whether the other node proved who it is
+	private boolean introduce(String other, Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		socket.setSoTimeout((int) RETRY_MILLIS);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		byte[] theirs = new byte[NONCE_LENGTH];
+		in.readFully(theirs);
+
+		byte[] ours = nonce();
+		out.writeUTF(node);
+		out.write(ours);
+		out.write(mac("dial", node, other, theirs, ours));
+		out.flush();
+
+		byte[] proof = new byte[MAC_LENGTH];
+		in.readFully(proof);
+		if (!MessageDigest.isEqual(proof, mac("accept", other, node, ours, theirs))) {
+			ServerContext.events.warn(EventLog.Event.CLUSTER, null,
+					"node " + other + " did not prove it knows the cluster's secret", null);
+			return false;
+		}
+		socket.setSoTimeout(0);
+		return true;
+	}
+
+	private byte[] nonce() {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		random.nextBytes(nonce);
+		return nonce;
+	}
+
+	// HMAC of one step of the handshake, from and to are the ids of the node proving itself
+	// and of the node it proves itself to
+	private byte[] mac(String step, String from, String to, byte[] first, byte[] second) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(secret);
+			for (String part : new String[] { step, from, to }) {
+				byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+				mac.update((byte) (bytes.length >> 8));
+				mac.update((byte) bytes.length);
+				mac.update(bytes);
+			}
+			mac.update(first);
+			mac.update(second);
+			return mac.doFinal();
+		} catch (GeneralSecurityException e) {
+			// every Java runtime has HmacSHA256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// the listener hears about the node before the reader passes on anything it sends
+	private void connected(String other, Socket socket) {
+		Peer peer = new Peer(other, socket);
+		Peer previous = peers.put(other, peer);
+		if (previous != null) {
+			previous.close();
+		}
+		listener.onNodeUp(other);
+		peer.start();
+	}
+
+	@Override
+	public void publish(ClusterMessage message) {
+		for (Peer peer : peers.values()) {
+			peer.send(message);
+		}
+	}
+
+	@Override
+	public void send(String other, ClusterMessage message) {
+		Peer peer = peers.get(other);
+		if (peer != null) {
+			peer.send(message);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			if (server != null) {
+				server.close();
+			}
+		} catch (IOException e) {
+			ServerContext.events.warn(EventLog.Event.CLUSTER, null, "could not close the cluster socket", e);
+		}
+		for (Peer peer : peers.values()) {
+			peer.close();
+		}
+	}
+}
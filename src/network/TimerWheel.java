@@ -0,0 +1,116 @@
+package network;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Hashed timer wheel for the many short deadlines the server keeps, one or more per user.
+// Time is split into ticks and every timeout is hung on the slot of the tick it expires in, so
+// a tick only looks at the timeouts in one slot instead of every timeout the server holds.
+// Timeouts further away than one turn of the wheel stay in their slot until their turn comes.
+// Any thread may schedule or cancel a timeout. New timeouts are handed over through a queue and
+// hung on the wheel by the tick, which runs on the given scheduler, so the slots are only ever
+// touched by one thread. Tasks run on that thread too and must not block.
+class TimerWheel {
+	private final long tickNanos;
+	private final long startNanos = System.nanoTime();
+	private final Timeout[] slots;
+	private final int mask;
+
+	private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+	// last tick which has been run, only touched by the tick
+	private long tick = 0;
+	// milliseconds since the wheel started as of the last tick, cheap for any thread to read
+	private volatile long now = 0;
+
+	// slots is rounded up to a power of two
+	public TimerWheel(ScheduledExecutorService scheduler, long tickMillis, int slots) {
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.slots = new Timeout[Integer.highestOneBit(slots - 1) << 1];
+		mask = this.slots.length - 1;
+		scheduler.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	// a task waiting on the wheel, cancel() stops it from running
+	static class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private volatile boolean cancelled = false;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	// runs task once delayMillis have passed, rounded up to the next tick
+	public Timeout schedule(Runnable task, long delayMillis) {
+		long delay = TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+		long deadline = (System.nanoTime() - startNanos + delay + tickNanos - 1) / tickNanos;
+		Timeout timeout = new Timeout(task, deadline);
+		added.add(timeout);
+		return timeout;
+	}
+
+	// milliseconds since the wheel started, accurate to one tick
+	public long now() {
+		return now;
+	}
+
+	// runs every tick which has passed since the last call, catching up if the scheduler was late
+	private void advance() {
+		long target = (System.nanoTime() - startNanos) / tickNanos;
+		while (tick < target) {
+			tick++;
+			now = TimeUnit.NANOSECONDS.toMillis(tick * tickNanos);
+			hangAdded();
+			expire();
+		}
+	}
+
+	// moves newly scheduled timeouts onto the wheel, anything already due goes in the current slot
+	private void hangAdded() {
+		Timeout timeout;
+		while ((timeout = added.poll()) != null) {
+			if (timeout.cancelled) {
+				continue;
+			}
+			int slot = (int) (Math.max(timeout.deadline, tick) & mask);
+			timeout.next = slots[slot];
+			slots[slot] = timeout;
+		}
+	}
+
+	// runs the timeouts of the current slot which are due, leaving those for later turns
+	private void expire() {
+		int slot = (int) (tick & mask);
+		Timeout timeout = slots[slot];
+		Timeout kept = null;
+		slots[slot] = null;
+
+		// cancelled timeouts are dropped here rather than searched for when cancelled
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.deadline > tick && !timeout.cancelled) {
+				timeout.next = kept;
+				kept = timeout;
+			}
+			else if (!timeout.cancelled) {
+				try {
+					timeout.task.run();
+				} catch (RuntimeException e) {
+					// one failing task must not stop the wheel
+					ServerContext.events.error(EventLog.Event.TIMER, null, "task failed", e);
+				}
+			}
+			timeout = next;
+		}
+		slots[slot] = kept;
+	}
+}
@@ -0,0 +1,45 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket which lets through at most rate tokens a second on average, and up to burst of
+// them at once. Instead of a token count and a refill thread it only keeps the time at which the
+// bucket will be full again (the generic cell rate algorithm): taking tokens moves that time on
+// by what they cost, and is refused if it would end up more than a burst ahead of now. Taking is
+// therefore one compare-and-set on a long, safe from any thread without a lock.
+// A full bucket always lets one take through, even one that costs more than the burst, so that
+// a single large message is never refused forever; the bucket then stays empty until it is paid.
+class TokenBucket {
+	private final long nanosPerToken;
+	private final long burstNanos;
+	// System.nanoTime() at which the bucket is full again
+	private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+	public TokenBucket(double rate, double burst) {
+		nanosPerToken = Math.max(1, (long) (1_000_000_000 / rate));
+		burstNanos = (long) (Math.max(1, burst) * nanosPerToken);
+	}
+
+	// returns false if the tokens are not there, in which case none are taken
+	public boolean tryTake(long tokens) {
+		long cost = tokens * nanosPerToken;
+		while (true) {
+			long now = System.nanoTime();
+			long full = fullAt.get();
+			long start = full;
+			if (full - now <= 0) {
+				start = now;
+			}
+			else if (full - now + cost > burstNanos) {
+				return false;
+			}
+			if (fullAt.compareAndSet(full, start + cost)) {
+				return true;
+			}
+		}
+	}
+
+	public boolean isFull(long now) {
+		return fullAt.get() - now <= 0;
+	}
+}
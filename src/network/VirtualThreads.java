@@ -0,0 +1,27 @@
+package network;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+// Creates virtual thread factories when the running JVM supports them (Java 21 and later).
+// The project still targets Java 17, so the Thread.ofVirtual() builder is looked up reflectively
+// and callers fall back to platform threads when it is not there.
+class VirtualThreads {
+
+	private VirtualThreads() {
+
+	}
+
+	// returns a factory for virtual threads named name-0, name-1, ... or null if not supported
+	public static ThreadFactory factory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+			builder = nameMethod.invoke(builder, name + "-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
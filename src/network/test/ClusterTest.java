@@ -0,0 +1,277 @@
+package network.test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import network.Cluster;
+import network.ClusterHost;
+import network.LoopbackBus;
+
+// This test ensures that the nodes of a Cluster agree on who may take a name, pass chat messages
+// on once to every other node, route private messages to the node of their recipient, agree on
+// the coordinator and clean up after a node which goes down. The nodes run in this process over
+// a LoopbackBus, each with a Host recording what the Cluster hands to its users.
+class ClusterTest {
+	private static final long WAIT_MILLIS = 5000;
+
+	// stands in for the server of one node
+	private static class Host implements ClusterHost {
+		final String node;
+		final List<String> users = new CopyOnWriteArrayList<>();
+		final Map<String, List<String>> mail = new ConcurrentHashMap<>();
+		final List<String> received = new CopyOnWriteArrayList<>();
+		volatile String coordinator;
+
+		Host(String node) {
+			this.node = node;
+		}
+
+		@Override
+		public List<Cluster.RemoteUser> users() {
+			List<Cluster.RemoteUser> remote = new ArrayList<>();
+			for (String name : users) {
+				remote.add(new Cluster.RemoteUser(name, node, "127.0.0.1", "9001"));
+			}
+			return remote;
+		}
+
+		@Override
+		public List<String> names() {
+			return users;
+		}
+
+		@Override
+		public String coordinator() {
+			return coordinator;
+		}
+
+		@Override
+		public void chat(String text) {
+			received.add("chat " + text);
+		}
+
+		@Override
+		public void room(String room, String text) {
+			received.add("room " + room + " " + text);
+		}
+
+		@Override
+		public void privateMessage(String name, String text) {
+			received.add("private " + name + " " + text);
+		}
+
+		@Override
+		public List<String> takeMail(String name) {
+			List<String> kept = mail.remove(name);
+			return kept == null ? Collections.emptyList() : kept;
+		}
+
+		@Override
+		public void joined(String name) {
+			received.add("joined " + name);
+		}
+
+		@Override
+		public void left(String name) {
+			received.add("left " + name);
+		}
+
+		@Override
+		public void broadcast(String text) {
+			received.add("notice " + text);
+		}
+
+		long count(String line) {
+			return received.stream().filter(line::equals).count();
+		}
+	}
+
+	private final LoopbackBus.Hub hub = new LoopbackBus.Hub();
+	private final List<Cluster> started = new ArrayList<>();
+
+	@AfterEach
+	void close() {
+		for (Cluster cluster : started) {
+			cluster.close();
+		}
+	}
+
+	private Cluster start(Host host) throws Exception {
+		Cluster cluster = new Cluster(new LoopbackBus(hub, host.node), host);
+		cluster.start();
+		started.add(cluster);
+		return cluster;
+	}
+
+	// waits until every node sees all of them
+	private void connected(Cluster... clusters) {
+		for (Cluster cluster : clusters) {
+			await(() -> cluster.nodes().size() == clusters.length);
+		}
+	}
+
+	private static void await(BooleanSupplier condition) {
+		long end = System.currentTimeMillis() + WAIT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			assert(System.currentTimeMillis() < end);
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+		}
+	}
+
+	private static boolean claim(Cluster cluster, String name) throws Exception {
+		CompletableFuture<Boolean> answer = new CompletableFuture<>();
+		cluster.claim(name, answer::complete);
+		return answer.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	// Claims 30 names, each through one of three nodes, then claims them again through another.
+	// Expected result: the first claim of every name is granted and the second refused, whichever
+	// node owns the name
+	@Test
+	void testClaimsAgree() throws Exception {
+		Cluster[] nodes = { start(new Host("a")), start(new Host("b")), start(new Host("c")) };
+		connected(nodes);
+
+		for (int i = 0; i < 30; i++) {
+			assert(claim(nodes[i % 3], "user" + i));
+		}
+		for (int i = 0; i < 30; i++) {
+			assert(!claim(nodes[(i + 1) % 3], "user" + i));
+			assert(claim(nodes[i % 3], "user" + i));
+		}
+	}
+
+	// Releases a name and claims it through another node.
+	// Expected result: the name can be taken once it has been released
+	@Test
+	void testRelease() throws Exception {
+		Cluster a = start(new Host("a"));
+		Cluster b = start(new Host("b"));
+		connected(a, b);
+
+		for (int i = 0; i < 10; i++) {
+			String name = "user" + i;
+			assert(claim(a, name));
+			a.release(name);
+			await(() -> {
+				try {
+					return claim(b, name);
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+			});
+		}
+	}
+
+	// Sends a chat and a room message through one of three nodes, followed by a marker.
+	// Expected result: once the marker has arrived, each other node has got every message exactly
+	// once and the sending node none of them
+	@Test
+	void testFanOutOncePerNode() throws Exception {
+		Host[] hosts = { new Host("a"), new Host("b"), new Host("c") };
+		Cluster a = start(hosts[0]);
+		connected(a, start(hosts[1]), start(hosts[2]));
+
+		a.chat("hello");
+		a.room("#room", "hi");
+		a.chat("marker");
+
+		for (int i = 1; i < 3; i++) {
+			Host host = hosts[i];
+			await(() -> host.count("chat marker") == 1);
+			assert(host.count("chat hello") == 1);
+			assert(host.count("room #room hi") == 1);
+		}
+		assert(hosts[0].received.isEmpty());
+	}
+
+	// Lets a user join on one node and sends them a private message from another. A third node
+	// kept a message for a user who then joins elsewhere.
+	// Expected result: every node knows where the user is, and both messages reach that node
+	@Test
+	void testPrivateMessageRouting() throws Exception {
+		Host hostA = new Host("a");
+		Host hostB = new Host("b");
+		Host hostC = new Host("c");
+		hostC.mail.put("bob", new ArrayList<>(List.of("kept for bob")));
+		Cluster a = start(hostA);
+		Cluster b = start(hostB);
+		Cluster c = start(hostC);
+		connected(a, b, c);
+
+		hostB.users.add("bob");
+		b.joined("bob", "127.0.0.1", "9001");
+		await(() -> "b".equals(a.nodeOf("bob")) && "b".equals(c.nodeOf("bob")));
+		// the node is known a moment before the host is told
+		await(() -> hostA.count("joined bob") == 1);
+		assert(a.remoteUser("bob").node.equals("b"));
+
+		a.privateMessage(a.nodeOf("bob"), "bob", "hi bob");
+		await(() -> hostB.count("private bob hi bob") == 1);
+		await(() -> hostB.count("private bob kept for bob") == 1);
+		assert(hostC.mail.isEmpty());
+		assert(hostA.count("private bob hi bob") == 0);
+	}
+
+	// Lets each node announce its coordinator, then stops the first node.
+	// Expected result: both nodes agree on the first node's coordinator, then on the second's
+	@Test
+	void testCoordinator() throws Exception {
+		Host hostA = new Host("a");
+		Host hostB = new Host("b");
+		hostA.coordinator = "ann";
+		hostB.coordinator = "bob";
+		Cluster a = start(hostA);
+		Cluster b = start(hostB);
+		connected(a, b);
+		// as each server does once its users have elected a coordinator
+		a.coordinatorChanged();
+		b.coordinatorChanged();
+
+		await(() -> "ann".equals(a.coordinator()) && "ann".equals(b.coordinator()));
+
+		// b may have announced its own coordinator before it heard of a's
+		String notice = "notice Coordinator changed. The new coordinator is bob";
+		long before = hostB.count(notice);
+		a.close();
+		await(() -> "bob".equals(b.coordinator()));
+		await(() -> hostB.count(notice) == before + 1);
+	}
+
+	// Stops a node which has a user and holds a name.
+	// Expected result: the other node lets the user leave, forgets where they were and lets one
+	// of its own users take their name
+	@Test
+	void testNodeDown() throws Exception {
+		Host hostA = new Host("a");
+		Host hostB = new Host("b");
+		hostB.users.add("bob");
+		Cluster a = start(hostA);
+		Cluster b = start(hostB);
+		connected(a, b);
+
+		await(() -> "b".equals(a.nodeOf("bob")));
+		assert(claim(b, "bob"));
+		assert(!claim(a, "bob"));
+
+		b.close();
+		await(() -> hostA.count("left bob") == 1);
+		assert(a.nodeOf("bob") == null);
+		assert(a.remoteUsers().isEmpty());
+		assert(a.nodes().equals(List.of("a")));
+		assert(claim(a, "bob"));
+	}
+}
@@ -0,0 +1,257 @@
+package network.test;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import network.Connection;
+import network.CoordinatorElection;
+import network.Session;
+import network.SharedMessage;
+
+// This test ensures that CoordinatorElection hands the coordinator role on exactly once per
+// change when many users join and leave at the same time, and always ends up with a coordinator
+// who is still in the chat. In every round 8 threads join and leave up to 2000 sessions at once.
+class CoordinatorElectionTest {
+	private static final int THREADS = 8;
+	private static final int SESSIONS = 2000;
+	private static final int ROUNDS = 200;
+	// rounds of the mass leave, where a few users leave at once so they often race for the role
+	private static final int SMALL_ROUNDS = 20000;
+	private static final int SMALL_SESSIONS = 16;
+
+	// connection which writes nothing, closed by the test to look like a user who has disconnected
+	private static class TestConnection implements Connection {
+		volatile boolean closed = false;
+
+		@Override
+		public void send(String text) {
+		}
+
+		@Override
+		public void sendControl(String message) {
+		}
+
+		@Override
+		public void send(SharedMessage message) {
+		}
+
+		@Override
+		public void send(long seq, String text) {
+		}
+
+		@Override
+		public void send(long seq, SharedMessage message) {
+		}
+
+		@Override
+		public void setSession(Session session) {
+		}
+
+		@Override
+		public void joined() {
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		@Override
+		public void abort() {
+			closed = true;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public int queued() {
+			return 0;
+		}
+
+		@Override
+		public boolean isFramed() {
+			return false;
+		}
+
+		@Override
+		public Socket socket() {
+			return new Socket();
+		}
+	}
+
+	private static ExecutorService threads;
+	private static final List<Session> sessions = new ArrayList<>();
+	private static final List<TestConnection> connections = new ArrayList<>();
+
+	@BeforeAll
+	static void setUp() {
+		threads = Executors.newFixedThreadPool(THREADS);
+		for (int i = 0; i < SESSIONS; i++) {
+			TestConnection connection = new TestConnection();
+			connections.add(connection);
+			sessions.add(new Session(connection));
+		}
+	}
+
+	@AfterAll
+	static void tearDown() {
+		threads.shutdownNow();
+	}
+
+	// runs task for every i in [from, to), spread over the threads, which all start at once
+	private static void inParallel(int from, int to, Task task) throws Exception {
+		CyclicBarrier start = new CyclicBarrier(THREADS);
+		List<Future<?>> done = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			int thread = t;
+			done.add(threads.submit(() -> {
+				start.await();
+				for (int i = from + thread; i < to; i += THREADS) {
+					task.run(i);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : done) {
+			future.get();
+		}
+	}
+
+	private interface Task {
+		void run(int i);
+	}
+
+	// lets the first half of the sessions join at once, exactly one of them becomes the coordinator
+	private static Session joinFirstHalf(CoordinatorElection election) throws Exception {
+		AtomicInteger became = new AtomicInteger();
+		inParallel(0, SESSIONS / 2, i -> {
+			if (election.join(sessions.get(i))) {
+				became.incrementAndGet();
+			}
+		});
+		assert(became.get() == 1);
+		assert(election.coordinator() != null);
+		return election.coordinator();
+	}
+
+	// In each round lets 16 users join, then lets all but one of them leave at once while their
+	// connections are still open, so the role is often handed to a user who is leaving right then.
+	// Expected result: every user who was coordinator but is no longer has left, no user is
+	// announced twice, and the coordinator at the end is the one who stayed
+	@Test
+	void testMassLeave() throws Exception {
+		List<Session> group = new ArrayList<>(sessions.subList(0, SMALL_SESSIONS));
+		for (int round = 0; round < SMALL_ROUNDS; round++) {
+			CoordinatorElection election = new CoordinatorElection();
+			Collections.shuffle(group);
+			for (Session session : group) {
+				election.join(session);
+			}
+			Session first = election.coordinator();
+			List<Session> leavers = group.subList(0, SMALL_SESSIONS - 1);
+
+			Set<Session> announced = ConcurrentHashMap.newKeySet();
+			AtomicInteger duplicates = new AtomicInteger();
+			inParallel(0, leavers.size(), i -> {
+				Session next = election.leave(leavers.get(i));
+				if (next != null && !announced.add(next)) {
+					duplicates.incrementAndGet();
+				}
+			});
+
+			Session coordinator = election.coordinator();
+			assert(duplicates.get() == 0);
+			assert(coordinator == group.get(SMALL_SESSIONS - 1));
+			assert(first == coordinator || leavers.contains(first));
+			for (Session session : announced) {
+				assert(session == coordinator || leavers.contains(session));
+			}
+			election.leave(coordinator);
+		}
+	}
+
+	// In each round lets half of the sessions join at once, then lets three quarters of them
+	// leave, half of those with their connections closed, while the other half joins.
+	// Expected result: no join makes a coordinator since the chat is never empty, no user is
+	// announced as the new coordinator twice, every user who was coordinator but is no longer has
+	// left, and the coordinator at the end is still in the chat and was either the first one or
+	// announced by the thread which elected them
+	@Test
+	void testConcurrentJoinAndLeave() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			CoordinatorElection election = new CoordinatorElection();
+			for (TestConnection connection : connections) {
+				connection.closed = false;
+			}
+			Session first = joinFirstHalf(election);
+
+			List<Integer> leaving = new ArrayList<>();
+			for (int i = 0; i < SESSIONS / 2; i++) {
+				leaving.add(i);
+			}
+			Collections.shuffle(leaving);
+			List<Integer> leavers = leaving.subList(0, SESSIONS * 3 / 8);
+			Set<Session> left = ConcurrentHashMap.newKeySet();
+
+			Set<Session> announced = ConcurrentHashMap.newKeySet();
+			AtomicInteger duplicates = new AtomicInteger();
+			AtomicInteger became = new AtomicInteger();
+			List<Runnable> steps = new ArrayList<>();
+			for (int i = 0; i < SESSIONS / 2; i++) {
+				if (i < leavers.size()) {
+					int index = leavers.get(i);
+					boolean disconnected = i % 2 == 0;
+					steps.add(() -> {
+						Session session = sessions.get(index);
+						connections.get(index).closed = disconnected;
+						left.add(session);
+						Session next = election.leave(session);
+						if (next != null && !announced.add(next)) {
+							duplicates.incrementAndGet();
+						}
+					});
+				}
+				Session joiner = sessions.get(SESSIONS / 2 + i);
+				steps.add(() -> {
+					if (election.join(joiner)) {
+						became.incrementAndGet();
+					}
+				});
+			}
+			inParallel(0, steps.size(), i -> steps.get(i).run());
+
+			Session coordinator = election.coordinator();
+			assert(duplicates.get() == 0);
+			assert(became.get() == 0);
+			assert(coordinator != null);
+			assert(!left.contains(coordinator));
+			assert(coordinator == first || announced.contains(coordinator));
+			// the role only moves on from a user who has left, so everyone who had it has left since
+			assert(first == coordinator || left.contains(first));
+			for (Session session : announced) {
+				assert(session == coordinator || left.contains(session));
+			}
+
+			// everyone leaves, one at a time
+			for (Session session : sessions) {
+				election.leave(session);
+			}
+			assert(election.coordinator() == null);
+		}
+	}
+}
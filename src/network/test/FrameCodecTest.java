@@ -0,0 +1,67 @@
+package network.test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import network.Frame;
+import network.FrameCodec;
+
+// This test ensures that frames written by FrameCodec are read back unchanged and that
+// frames longer than the allowed length are refused.
+class FrameCodecTest {
+
+	// Writes a text and a control frame, including non-ASCII text, and reads them back.
+	// Expected result: both frames returned unchanged, then null at the end of the stream
+	@Test
+	void testWriteThenRead() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		FrameCodec.write(out, Frame.TEXT, "h\u00e9llo\nwith a new line");
+		FrameCodec.write(out, Frame.CONTROL, "PING");
+		out.flush();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Frame first = FrameCodec.read(in, 1024);
+		Frame second = FrameCodec.read(in, 1024);
+
+		assert(first.opcode == Frame.TEXT && first.payload.equals("h\u00e9llo\nwith a new line"));
+		assert(second.opcode == Frame.CONTROL && second.payload.equals("PING"));
+		assert(FrameCodec.read(in, 1024) == null);
+	}
+
+	// Encodes a frame into a buffer and checks the header.
+	// Expected result: length counts the opcode and the payload
+	@Test
+	void testEncodeHeader() {
+		ByteBuffer buffer = FrameCodec.encode(Frame.TEXT, "abc");
+
+		assert(buffer.remaining() == FrameCodec.HEADER_LENGTH + 3);
+		assert(buffer.getInt(0) == 4);
+		assert(buffer.get(4) == Frame.TEXT);
+	}
+
+	// Reads a frame longer than the maximum length.
+	// Expected result: IOException
+	@Test
+	void testFrameTooLong() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		FrameCodec.write(out, Frame.TEXT, "this payload is too long");
+		out.flush();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		boolean refused = false;
+		try {
+			FrameCodec.read(in, 8);
+		} catch (IOException e) {
+			refused = true;
+		}
+
+		assert(refused);
+	}
+}
@@ -0,0 +1,39 @@
+package network.test;
+import org.junit.jupiter.api.Test;
+
+import network.LatencyHistogram;
+
+// This test ensures that LatencyHistogram reports percentiles within its bucket precision.
+class LatencyHistogramTest {
+
+	// Records the values 1 to 1000 once each.
+	// Expected result: small values exact, larger ones at most 1/64 above the true value
+	@Test
+	void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+
+		assert(histogram.count() == 1000);
+		assert(histogram.percentile(0.1) == 100);
+		assert(histogram.percentile(0.5) >= 500 && histogram.percentile(0.5) <= 500 + 500 / 64);
+		assert(histogram.percentile(0.99) >= 990 && histogram.percentile(0.99) <= 990 + 990 / 64);
+		assert(histogram.max() >= 1000 && histogram.max() <= 1000 + 1000 / 64);
+	}
+
+	// Records a value far above the largest bucket, and a negative one.
+	// Expected result: counted as the largest and smallest value instead of failing
+	@Test
+	void testOutOfRange() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE);
+		histogram.record(-5);
+
+		assert(histogram.percentile(0.5) == 0);
+		assert(histogram.max() == LatencyHistogram.MAX_VALUE);
+
+		histogram.reset();
+		assert(histogram.count() == 0 && histogram.percentile(0.99) == 0);
+	}
+}
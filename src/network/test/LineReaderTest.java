@@ -0,0 +1,65 @@
+package network.test;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import network.LineReader;
+
+// This test ensures that the LineReader splits input into the same lines Scanner.nextLine() did
+// and refuses lines longer than its limit.
+class LineReaderTest {
+
+	// returns the bytes of s one at a time, like a slow network
+	static InputStream slowStream(String s) {
+		return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+	}
+
+	// Reads \n and \r\n terminated lines, an empty line, non-ASCII text and a last line without
+	// a new line, arriving one byte at a time.
+	// Expected result: every line returned without its line ending, then null
+	@Test
+	void testReadLines() throws IOException {
+		LineReader reader = new LineReader(slowStream("Steve\r\n\nh\u00e9llo\nlast"));
+
+		assert(reader.readLine().equals("Steve"));
+		assert(reader.readLine().equals(""));
+		assert(reader.readLine().equals("h\u00e9llo"));
+		assert(reader.readLine().equals("last"));
+		assert(reader.readLine() == null);
+	}
+
+	// Reads a line longer than the limit.
+	// Expected result: IOException
+	@Test
+	void testLineTooLong() {
+		LineReader reader = new LineReader(new ByteArrayInputStream("0123456789\n".getBytes()), 8);
+
+		boolean refused = false;
+		try {
+			reader.readLine();
+		} catch (IOException e) {
+			refused = true;
+		}
+
+		assert(refused);
+	}
+
+	// Reads a line and then the bytes after it as a stream, as a connection switching to frames does.
+	// Expected result: bytes read ahead with the line are not lost
+	@Test
+	void testReadAfterLine() throws IOException {
+		LineReader reader = new LineReader(new ByteArrayInputStream("HELLO\n\u0000\u0000\u0000\u0007".getBytes()));
+
+		assert(reader.readLine().equals("HELLO"));
+		assert(new DataInputStream(reader).readInt() == 7);
+	}
+}
@@ -0,0 +1,101 @@
+package network.test;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import network.Mailboxes;
+
+// This test ensures that private messages kept for users who are away are still there after the
+// server restarts, that messages already delivered are not, and that a restart which stopped
+// while replacing the log of the mailboxes loses nothing.
+class MailboxesTest {
+
+	@TempDir
+	Path parent;
+
+	private Path dir() {
+		return parent.resolve("mailboxes");
+	}
+
+	private Mailboxes open() throws IOException {
+		Mailboxes mailboxes = new Mailboxes();
+		mailboxes.open(dir());
+		return mailboxes;
+	}
+
+	// Keeps messages for two users, delivers those of one and restarts.
+	// Expected result: only the messages of the other user are kept, in the order they were sent
+	@Test
+	void testKeptAcrossRestart() throws IOException {
+		Mailboxes mailboxes = open();
+		assert(mailboxes.receive("ann", "first") == Mailboxes.Delivery.KEPT);
+		assert(mailboxes.receive("bob", "for bob") == Mailboxes.Delivery.KEPT);
+		assert(mailboxes.receive("ann", "second") == Mailboxes.Delivery.KEPT);
+		assert(mailboxes.take("bob").equals(List.of("for bob")));
+		mailboxes.close();
+
+		Mailboxes restarted = open();
+		assert(restarted.size() == 2);
+		assert(restarted.take("bob").isEmpty());
+		assert(restarted.take("ann").equals(List.of("first", "second")));
+		restarted.close();
+
+		Mailboxes emptied = open();
+		assert(emptied.size() == 0);
+		emptied.close();
+	}
+
+	// Restarts several times without delivering anything.
+	// Expected result: the messages are kept once each, not once for every restart
+	@Test
+	void testRestartsCompact() throws IOException {
+		Mailboxes mailboxes = open();
+		mailboxes.receive("ann", "hello");
+		mailboxes.close();
+		for (int i = 0; i < 3; i++) {
+			mailboxes = open();
+			mailboxes.close();
+		}
+
+		Mailboxes restarted = open();
+		assert(restarted.take("ann").equals(List.of("hello")));
+		restarted.close();
+		assert(Files.notExists(parent.resolve("mailboxes.new")));
+		assert(Files.notExists(parent.resolve("mailboxes.old")));
+	}
+
+	// Leaves an unfinished new log next to the old one, as if the server stopped while writing it.
+	// Expected result: the new log is thrown away and the messages of the old one are read back
+	@Test
+	void testUnfinishedReplacement() throws IOException {
+		Mailboxes mailboxes = open();
+		mailboxes.receive("ann", "hello");
+		mailboxes.close();
+		Files.createDirectories(parent.resolve("mailboxes.new"));
+		Files.writeString(parent.resolve("mailboxes.new").resolve("0.log"), "partial");
+
+		Mailboxes restarted = open();
+		assert(restarted.take("ann").equals(List.of("hello")));
+		restarted.close();
+		assert(Files.notExists(parent.resolve("mailboxes.new")));
+	}
+
+	// Leaves only the finished new log, as if the server stopped just after moving the old one away.
+	// Expected result: the new log takes the old one's place and its messages are read back
+	@Test
+	void testFinishedReplacement() throws IOException {
+		Mailboxes mailboxes = open();
+		mailboxes.receive("ann", "hello");
+		mailboxes.close();
+		Files.move(dir(), parent.resolve("mailboxes.new"));
+
+		Mailboxes restarted = open();
+		assert(restarted.take("ann").equals(List.of("hello")));
+		restarted.close();
+		assert(Files.exists(dir()));
+	}
+}
@@ -0,0 +1,158 @@
+package network.test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import network.LogRecord;
+import network.MessageLog;
+
+// This test ensures that messages written to the MessageLog are read back after it is opened
+// again, that a damaged end of the log is cut off, that reading from a time starts at the right
+// message and that the log is split into segments and trimmed as it grows.
+class MessageLogTest {
+	private static final long LARGE = 1024 * 1024;
+
+	@TempDir
+	Path dir;
+
+	// writes count messages with the times 1000, 1001, ... and closes the log
+	private void write(long segmentBytes, long retentionBytes, int count) throws IOException {
+		MessageLog log = MessageLog.open(dir, segmentBytes, retentionBytes);
+		for (int i = 0; i < count; i++) {
+			log.append(1000 + i, i % 2 == 0 ? "" : "#room", "message " + i);
+		}
+		log.close();
+	}
+
+	private List<LogRecord> read(long fromTime) throws IOException {
+		List<LogRecord> records = new ArrayList<>();
+		MessageLog log = MessageLog.open(dir, LARGE, LARGE);
+		log.read(fromTime, records::add);
+		log.close();
+		return records;
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(file -> file.toString().endsWith(".log")).sorted().toList();
+		}
+	}
+
+	// Writes 10 messages and reads them back.
+	// Expected result: the same 10 messages in order, with their rooms
+	@Test
+	void testWriteThenRead() throws IOException {
+		write(LARGE, LARGE, 10);
+		List<LogRecord> records = read(0);
+
+		assert(records.size() == 10);
+		for (int i = 0; i < 10; i++) {
+			assert(records.get(i).time == 1000 + i);
+			assert(records.get(i).text.equals("message " + i));
+			assert(records.get(i).room.equals(i % 2 == 0 ? "" : "#room"));
+		}
+	}
+
+	// Adds half a message to the end of the log, as if the server stopped while writing it.
+	// Expected result: the 10 whole messages are read and the half one is cut off the file
+	@Test
+	void testTornTailIsCutOff() throws IOException {
+		write(LARGE, LARGE, 10);
+		Path segment = segments().get(0);
+		long size = Files.size(segment);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.allocate(12).putInt(100).putInt(0).putInt(1234).flip());
+		}
+
+		List<LogRecord> records = read(0);
+
+		assert(records.size() == 10);
+		assert(Files.size(segment) == size);
+	}
+
+	// Changes the last byte of the last message so its checksum no longer matches.
+	// Expected result: the first 9 messages are read and the damaged one is cut off the file
+	@Test
+	void testBadChecksumIsCutOff() throws IOException {
+		write(LARGE, LARGE, 10);
+		Path segment = segments().get(0);
+		long size = Files.size(segment);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			channel.read(last, size - 1);
+			channel.write(ByteBuffer.wrap(new byte[] { (byte) (last.get(0) ^ 1) }), size - 1);
+		}
+
+		List<LogRecord> records = read(0);
+
+		assert(records.size() == 9);
+		assert(records.get(8).text.equals("message 8"));
+		assert(Files.size(segment) < size);
+	}
+
+	// Writes enough messages for the index to hold several entries, then reads from times
+	// which fall on and between them.
+	// Expected result: reading starts exactly at the first message at or after the time
+	@Test
+	void testReadFromTime() throws IOException {
+		write(LARGE, LARGE, 2000);
+		Path index = Path.of(segments().get(0).toString().replace(".log", ".idx"));
+		assert(Files.size(index) > 16);
+
+		for (int from : new int[] { 0, 1, 777, 1234, 1999 }) {
+			List<LogRecord> records = read(1000 + from);
+			assert(records.size() == 2000 - from);
+			assert(records.get(0).text.equals("message " + from));
+		}
+		assert(read(5000).isEmpty());
+	}
+
+	// Writes messages into segments of 1kB.
+	// Expected result: several segment files, and every message read back in order across them
+	@Test
+	void testSegmentRollover() throws IOException {
+		write(1024, LARGE, 200);
+		List<LogRecord> records = read(0);
+
+		assert(segments().size() > 1);
+		assert(records.size() == 200);
+		for (int i = 0; i < 200; i++) {
+			assert(records.get(i).text.equals("message " + i));
+		}
+	}
+
+	// Writes messages into segments of 1kB while keeping only 3kB of them.
+	// Expected result: the oldest segments are deleted, the newest messages are all still there
+	@Test
+	void testRetention() throws IOException {
+		write(1024, 3 * 1024, 200);
+		List<LogRecord> records = read(0);
+
+		assert(segments().size() <= 4);
+		assert(records.size() < 200);
+		assert(records.get(records.size() - 1).text.equals("message 199"));
+		for (int i = 1; i < records.size(); i++) {
+			assert(records.get(i).time == records.get(i - 1).time + 1);
+		}
+	}
+
+	// Puts a file named like a segment but without a number in the directory.
+	// Expected result: the log opens, ignores the file and reads back its messages
+	@Test
+	void testStrayFileIgnored() throws IOException {
+		Files.writeString(dir.resolve("old.log"), "not a segment");
+		write(LARGE, LARGE, 3);
+
+		assert(read(0).size() == 3);
+		assert(Files.exists(dir.resolve("old.log")));
+	}
+}
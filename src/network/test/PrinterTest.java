@@ -1,14 +1,20 @@
 package network.test;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
-import java.util.Scanner;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import network.ChatClient;
+import network.Frame;
+import network.FrameCodec;
+import network.LineReader;
 import network.Printer;
 
 // This test ensures that the Printer class is correctly storing the active users when
@@ -37,7 +43,7 @@ class PrinterTest {
 	
 	@BeforeEach
 	void setUpBeforeTest() throws Exception {
-		ChatClient.serverIn = new Scanner(inputStream);
+		ChatClient.serverIn = new LineReader(inputStream);
 	}
 
 	@AfterEach
@@ -106,4 +112,32 @@ class PrinterTest {
 		
 		assert(!correct);
 	}
+	
+	// Sending 3 names as control frames, with chat text and its sequence number arriving between them
+	// as they can for a resumable framed client
+	// Expected result: only the 3 names stored
+	@Test
+	void testStoreUserNamesFramed() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		FrameCodec.write(out, Frame.CONTROL, "Steve");
+		FrameCodec.write(out, Frame.SEQ, "7");
+		FrameCodec.write(out, Frame.TEXT, "[12:00:00] Bob: hello");
+		FrameCodec.write(out, Frame.CONTROL, "Bob");
+		FrameCodec.write(out, Frame.CONTROL, "James");
+		FrameCodec.write(out, Frame.CONTROL, "NAMES_END");
+		out.flush();
+		
+		ChatClient.framed = true;
+		ChatClient.frameIn = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		try {
+			Printer printer = new Printer();
+			printer.storeUserNames();
+		} finally {
+			ChatClient.framed = false;
+			ChatClient.frameIn = null;
+		}
+		
+		assert(ChatClient.userNames.equals(namesSent));
+	}
 }
@@ -0,0 +1,91 @@
+package network.test;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import network.SearchIndex;
+
+// This test ensures that SearchIndex finds the messages containing every word of a query,
+// newest first, that ids far apart are stored and read back correctly, and that messages leave
+// the index when the history overwrites them.
+class SearchIndexTest {
+
+	private static SearchIndex index(int capacity) {
+		return new SearchIndex(capacity, Runnable::run);
+	}
+
+	// Splits a chat line into words.
+	// Expected result: lower case words without the timestamp, each once
+	@Test
+	void testTerms() {
+		Set<String> terms = SearchIndex.terms("[12:00:00] Bob: Hello, hello world 42!");
+
+		assert(terms.equals(Set.of("bob", "hello", "world", "42")));
+	}
+
+	// Indexes three messages and searches for one and for two words.
+	// Expected result: only the messages containing every word, newest first, up to the limit
+	@Test
+	void testFind() {
+		SearchIndex index = index(16);
+		index.index("[12:00:00] ann: the cat sat");
+		index.index("[12:00:01] bob: a dog sat");
+		index.index("[12:00:02] ann: the cat ran");
+
+		assert(index.find("cat", 10).equals(List.of("[12:00:02] ann: the cat ran", "[12:00:00] ann: the cat sat")));
+		assert(index.find("CAT sat", 10).equals(List.of("[12:00:00] ann: the cat sat")));
+		assert(index.find("sat", 1).equals(List.of("[12:00:01] bob: a dog sat")));
+		assert(index.find("bird", 10).isEmpty());
+		assert(index.find("12", 10).isEmpty());
+	}
+
+	// Uses a word in messages 0, 100, 300 and 20300, so the gaps between them take one, two and
+	// three bytes in its posting list.
+	// Expected result: exactly those four messages, newest first
+	@Test
+	void testLargeGaps() {
+		SearchIndex index = index(32 * 1024);
+		for (int i = 0; i <= 20300; i++) {
+			index.index(i == 0 || i == 100 || i == 300 || i == 20300 ? "rare " + i : "filler " + i);
+		}
+
+		assert(index.find("rare", 10).equals(List.of("rare 20300", "rare 300", "rare 100", "rare 0")));
+		assert(index.find("filler", 100000).size() == 20297);
+	}
+
+	// Indexes 10 messages into an index holding 4.
+	// Expected result: only the newest 4 are found, words only in older ones are gone
+	@Test
+	void testOldestRemoved() {
+		SearchIndex index = index(4);
+		for (int i = 0; i < 10; i++) {
+			index.index("common unique" + i);
+		}
+
+		assert(index.find("common", 10).equals(List.of("common unique9", "common unique8", "common unique7",
+				"common unique6")));
+		assert(index.find("unique5", 10).isEmpty());
+		assert(index.find("unique6", 10).equals(List.of("common unique6")));
+	}
+
+	// Keeps indexing a word into a small index long enough for its posting list to be compacted
+	// many times, with a second word which comes and goes.
+	// Expected result: the newest messages are found for both words after every compaction
+	@Test
+	void testCompaction() {
+		SearchIndex index = index(8);
+		for (int i = 0; i < 10000; i++) {
+			index.index(i % 5 == 0 ? "word other " + i : "word " + i);
+			if (i >= 8 && i % 1000 == 999) {
+				List<String> found = index.find("word", 100);
+				assert(found.size() == 8);
+				assert(found.get(0).endsWith(" " + i));
+				assert(found.get(7).endsWith(" " + (i - 7)));
+				List<String> other = index.find("other", 100);
+				assert(other.size() == (i % 5 < 3 ? 2 : 1));
+				assert(other.get(0).endsWith(" " + (i - i % 5)));
+			}
+		}
+	}
+}